@@ -0,0 +1,96 @@
+package com.mobimentum.liveedgedetection.util;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.mobimentum.liveedgedetection.enums.DetectorType;
+import com.mobimentum.liveedgedetection.view.Quadrilateral;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.dnn.Dnn;
+import org.opencv.dnn.Net;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.opencv.core.CvType.CV_8UC1;
+
+/**
+ * Instrumented tests of {@link DnnQuadDetector} on the fixture network of the test assets,
+ * which marks the bright pixels as document
+ */
+@RunWith(AndroidJUnit4.class)
+public class DnnQuadDetectorTest {
+
+    private static final String FIXTURE_ASSET = "segmentation_fixture.prototxt";
+    private static final int INPUT_SIZE = 64;
+    // One cell of the network input, once brought back to the frame
+    private static final double TOLERANCE = 12;
+
+    private static final Point[] DOCUMENT = {
+            new Point(100, 120), new Point(380, 120), new Point(380, 520), new Point(100, 520)
+    };
+
+    @BeforeClass
+    public static void loadOpenCv() {
+        System.loadLibrary("opencv_java3");
+    }
+
+    private static Net readFixture() throws IOException {
+        try (InputStream inputStream = InstrumentationRegistry.getContext().getAssets().open(FIXTURE_ASSET)) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+            MatOfByte prototxt = new MatOfByte(outputStream.toByteArray());
+            Net net = Dnn.readNetFromCaffe(prototxt);
+            prototxt.release();
+            return net;
+        }
+    }
+
+    private static Mat documentFrame() {
+        Mat luma = new Mat(640, 480, CV_8UC1, new Scalar(40));
+        Imgproc.rectangle(luma, DOCUMENT[0], DOCUMENT[2], new Scalar(220), -1);
+        return luma;
+    }
+
+    @Test
+    public void detect_givesSameCornersOnSameFrame() throws IOException {
+        Net net = readFixture();
+        assertFalse(net.empty());
+        DnnQuadDetector detector = new DnnQuadDetector(net, INPUT_SIZE, 0, 0);
+        Mat luma = documentFrame();
+
+        Quadrilateral first = detector.detect(luma, QuadScorer.DEFAULT, null);
+        Quadrilateral second = detector.detect(luma, QuadScorer.DEFAULT, null);
+
+        assertNotNull(first);
+        assertNotNull(second);
+        assertEquals(DetectorType.DNN, first.detector);
+        assertArrayEquals(first.points, second.points);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(DOCUMENT[i].x, first.points[i].x, TOLERANCE);
+            assertEquals(DOCUMENT[i].y, first.points[i].y, TOLERANCE);
+        }
+        assertEquals(0, detector.getOverrunCount());
+
+        first.contour.release();
+        second.contour.release();
+        luma.release();
+    }
+}
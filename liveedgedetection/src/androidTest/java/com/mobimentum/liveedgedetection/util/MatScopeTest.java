@@ -0,0 +1,69 @@
+package com.mobimentum.liveedgedetection.util;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.mobimentum.liveedgedetection.view.Quadrilateral;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.opencv.core.CvType.CV_8UC1;
+
+/**
+ * Instrumented tests of the native memory bookkeeping of {@link MatScope}, which need the
+ * OpenCV native library of the device
+ */
+@RunWith(AndroidJUnit4.class)
+public class MatScopeTest {
+
+    @BeforeClass
+    public static void loadOpenCv() {
+        System.loadLibrary("opencv_java3");
+    }
+
+    @After
+    public void disableLeakTracking() {
+        MatScope.setLeakTracking(false);
+    }
+
+    private static Mat documentFrame() {
+        Mat luma = new Mat(640, 480, CV_8UC1, new Scalar(40));
+        Imgproc.rectangle(luma, new Point(100, 120), new Point(380, 520), new Scalar(220), -1);
+        return luma;
+    }
+
+    @Test
+    public void liveBytes_countOpenScopesOnly() {
+        MatScope.setLeakTracking(true);
+        long baseline = MatScope.getLiveBytes();
+        MatScope scope = new MatScope();
+        scope.mat(10, 20, CV_8UC1);
+        assertEquals(baseline + 200, MatScope.getLiveBytes());
+        scope.close();
+        assertEquals(baseline, MatScope.getLiveBytes());
+    }
+
+    @Test
+    public void liveBytes_returnToBaselineAfterDetection() {
+        Mat luma = documentFrame();
+        MatScope.setLeakTracking(true);
+        long baseline = MatScope.getLiveBytes();
+        int baselineScopes = MatScope.getOpenScopeCount();
+
+        Quadrilateral quad = ScanUtils.detectLargestQuadrilateralFromLuma(luma);
+        assertNotNull(quad);
+        quad.contour.release();
+
+        assertEquals(baselineScopes, MatScope.getOpenScopeCount());
+        assertEquals(baseline, MatScope.getLiveBytes());
+        luma.release();
+    }
+}
@@ -14,7 +14,6 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
-import android.provider.MediaStore;
 import android.support.annotation.NonNull;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
@@ -36,24 +35,27 @@ import android.widget.Toast;
 import com.mobimentum.liveedgedetection.BuildConfig;
 import com.mobimentum.liveedgedetection.R;
 import com.mobimentum.liveedgedetection.constants.ScanConstants;
+import com.mobimentum.liveedgedetection.enums.CaptureStage;
 import com.mobimentum.liveedgedetection.enums.ScanHint;
+import com.mobimentum.liveedgedetection.interfaces.ICaptureListener;
 import com.mobimentum.liveedgedetection.interfaces.IScanner;
+import com.mobimentum.liveedgedetection.util.CaptureTask;
+import com.mobimentum.liveedgedetection.util.CropTask;
+import com.mobimentum.liveedgedetection.util.MatPool;
 import com.mobimentum.liveedgedetection.util.ScanUtils;
+import com.mobimentum.liveedgedetection.view.CaptureResult;
 import com.mobimentum.liveedgedetection.view.LimitedArea;
 import com.mobimentum.liveedgedetection.view.PolygonView;
 import com.mobimentum.liveedgedetection.view.ProgressDialogFragment;
-import com.mobimentum.liveedgedetection.view.Quadrilateral;
 import com.mobimentum.liveedgedetection.view.ScanSurfaceView;
 
-import org.opencv.android.Utils;
-import org.opencv.core.CvType;
-import org.opencv.core.Mat;
 import org.opencv.core.Point;
-import org.opencv.imgproc.Imgproc;
+import org.opencv.core.Size;
 
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static android.view.View.GONE;
@@ -68,7 +70,8 @@ import static com.mobimentum.liveedgedetection.enums.ScanHint.NO_MESSAGE;
 /**
  * This class initiates camera and detects edges on live view
  */
-public class ScanActivity extends AppCompatActivity implements IScanner, View.OnClickListener, ScanUtils.OnSaveListener {
+public class ScanActivity extends AppCompatActivity implements IScanner, ICaptureListener, View.OnClickListener,
+        ScanUtils.OnSaveListener {
 
     private static final String TAG = ScanActivity.class.getSimpleName();
 
@@ -94,6 +97,11 @@ public class ScanActivity extends AppCompatActivity implements IScanner, View.On
     private LimitedArea limitedArea;
 
     private boolean isPermissionNotGranted;
+    private boolean multiDocument;
+    private CaptureTask captureTask;
+    private CropTask cropTask;
+    // Corners of the documents found besides the one shown in the crop view
+    private final List<Point[]> otherDocuments = new ArrayList<>();
     private boolean flashIsEnable = false;
 
     static {
@@ -113,6 +121,7 @@ public class ScanActivity extends AppCompatActivity implements IScanner, View.On
 
     private void init() {
         Log.d(TAG, "Scan init");
+        multiDocument = getIntent().getBooleanExtra(ScanConstants.MULTI_DOCUMENT, false);
         containerScan = findViewById(R.id.container_scan);
         cameraPreviewLayout = findViewById(R.id.camera_preview);
         captureHintLayout = findViewById(R.id.capture_hint_layout);
@@ -142,17 +151,28 @@ public class ScanActivity extends AppCompatActivity implements IScanner, View.On
         checkCameraPermissions();
     }
 
+    @Override
+    protected void onDestroy() {
+        cancelCapture();
+        cancelCrop();
+        MatPool.SHARED.clear();
+        super.onDestroy();
+    }
+
     private void openCameraView() {
         Log.d(TAG, "openCameraView");
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
             Log.d(TAG, "openCameraView delayed");
             TransitionManager.beginDelayedTransition(containerScan);
         }
+        cancelCapture();
+        cancelCrop();
         cropLayout.setVisibility(View.GONE);
         if (mImageSurfaceView.getAcquisitionMode() == ScanSurfaceView.AcquisitionMode.FROM_FILESYSTEM) {
             Log.d(TAG, "getAcquisitionMode");
             mImageSurfaceView = new ScanSurfaceView(ScanActivity.this, ScanActivity.this);
             cameraPreviewLayout.addView(mImageSurfaceView);
+            mImageSurfaceView.setMultiDocumentMode(multiDocument);
         }
         else {
             Log.d(TAG, "getAcquisitionMode false");
@@ -235,34 +255,20 @@ public class ScanActivity extends AppCompatActivity implements IScanner, View.On
         super.onActivityResult(requestCode, resultCode, data);
         if (requestCode == SELECTED_FILE_CODE && data != null) {
             mImageSurfaceView.surfaceDestroyed();
-            try {
-                Log.d(TAG, "onActivityResult:try");
-                Uri selectedFile = data.getData();
-                ContentResolver cR = getApplicationContext().getContentResolver();
-                MimeTypeMap mime = MimeTypeMap.getSingleton();
-                String type = mime.getExtensionFromMimeType(cR.getType(selectedFile));
-                Log.i(TAG, "Caricato file da filesystem di tipo: " + type);
-                if (type.equals(PDF_EXT)) {
-                    Log.d(TAG, "onActivityResult:if");
-                    ScanUtils.saveToInternalMemory(getApplicationContext(), selectedFile, this);
-                }
-                else {
-                    Log.d(TAG, "onActivityResult:else");
-                    Bitmap bitmap = MediaStore.Images.Media.getBitmap(this.getContentResolver(), selectedFile);
-                    Bitmap rotatedBitmap = ScanUtils.modifyOrientation(getApplicationContext(), bitmap, selectedFile);
-                    if (rotatedBitmap == null) {
-                        Log.d(TAG, "onActivityResult:rotatedBitmap:null");
-                        onPictureClicked(bitmap);
-                    }
-                    else {
-                        Log.d(TAG, "onActivityResult:rotatedBitmap:notnull");
-                        onPictureClicked(rotatedBitmap);
-                    }
-                    displayHint(NO_MESSAGE);
-                }
+            Uri selectedFile = data.getData();
+            ContentResolver cR = getApplicationContext().getContentResolver();
+            MimeTypeMap mime = MimeTypeMap.getSingleton();
+            String type = mime.getExtensionFromMimeType(cR.getType(selectedFile));
+            Log.i(TAG, "Caricato file da filesystem di tipo: " + type);
+            if (type.equals(PDF_EXT)) {
+                Log.d(TAG, "onActivityResult:if");
+                ScanUtils.saveToInternalMemory(getApplicationContext(), selectedFile, this);
             }
-            catch (IOException e) {
-                Log.e(TAG, e.getMessage(), e);
+            else {
+                Log.d(TAG, "onActivityResult:else");
+                displayHint(NO_MESSAGE);
+                // Decoding and orientation run in background with the rest of the processing
+                startCapture(newCaptureTask().setUri(selectedFile));
             }
         }
         else {
@@ -284,6 +290,7 @@ public class ScanActivity extends AppCompatActivity implements IScanner, View.On
                 Log.d(TAG, "checkCameraPermissions() called");
                 mImageSurfaceView = new ScanSurfaceView(ScanActivity.this, this);
                 cameraPreviewLayout.addView(mImageSurfaceView);
+                mImageSurfaceView.setMultiDocumentMode(multiDocument);
             }
             else {
                 isPermissionNotGranted = false;
@@ -309,6 +316,7 @@ public class ScanActivity extends AppCompatActivity implements IScanner, View.On
             new Handler().postDelayed(() -> runOnUiThread(() -> {
                 mImageSurfaceView = new ScanSurfaceView(ScanActivity.this, ScanActivity.this);
                 cameraPreviewLayout.addView(mImageSurfaceView);
+                mImageSurfaceView.setMultiDocumentMode(multiDocument);
             }), 500);
         }
         else {
@@ -358,65 +366,96 @@ public class ScanActivity extends AppCompatActivity implements IScanner, View.On
     }
 
     @Override
-    public void onPictureClicked(final Bitmap bitmap) {
+    public void onPictureTaken(byte[] data, Point[] previewCorners, Size previewSize) {
+        startCapture(newCaptureTask().setJpeg(data, previewCorners, previewSize));
+    }
+
+    private CaptureTask newCaptureTask() {
+        int height = getWindow().findViewById(Window.ID_ANDROID_CONTENT).getHeight();
+        int width = getWindow().findViewById(Window.ID_ANDROID_CONTENT).getWidth();
+        return new CaptureTask(this, this, width, height);
+    }
+
+    private void startCapture(CaptureTask task) {
         handler.removeCallbacks(runnable);
-        try {
-            copyBitmap = bitmap.copy(Bitmap.Config.ARGB_8888, true);
-
-            int height = getWindow().findViewById(Window.ID_ANDROID_CONTENT).getHeight();
-            int width = getWindow().findViewById(Window.ID_ANDROID_CONTENT).getWidth();
-
-            copyBitmap = ScanUtils.resizeToScreenContentSize(copyBitmap, width, height);
-            Mat originalMat = new Mat(copyBitmap.getHeight(), copyBitmap.getWidth(), CvType.CV_8UC1);
-            Utils.bitmapToMat(copyBitmap, originalMat);
-            ArrayList<PointF> points;
-            Map<Integer, PointF> pointFs = new HashMap<>();
-            Quadrilateral quad = ScanUtils.detectLargestQuadrilateral(originalMat);
-            if (mImageSurfaceView.getAcquisitionMode() != ScanSurfaceView.AcquisitionMode.MANUAL_MODE) {
-                if (null != quad) {
-                    double resultArea = Math.abs(Imgproc.contourArea(quad.contour));
-                    double previewArea = originalMat.rows() * originalMat.cols();
-                    if (resultArea > previewArea * 0.08) {
-                        points = new ArrayList<>();
-                        points.add(new PointF((float) quad.points[0].x, (float) quad.points[0].y));
-                        points.add(new PointF((float) quad.points[1].x, (float) quad.points[1].y));
-                        points.add(new PointF((float) quad.points[3].x, (float) quad.points[3].y));
-                        points.add(new PointF((float) quad.points[2].x, (float) quad.points[2].y));
-                    }
-                    else {
-                        points = ScanUtils.getPolygonDefaultPoints(copyBitmap);
-                    }
+        cancelCapture();
+        boolean detect = mImageSurfaceView.getAcquisitionMode() != ScanSurfaceView.AcquisitionMode.MANUAL_MODE;
+        captureTask = task.setDetection(detect, multiDocument && detect);
+        captureTask.execute();
+    }
 
-                }
-                else {
-                    points = ScanUtils.getPolygonDefaultPoints(copyBitmap);
-                }
-            }
-            else {
-                points = ScanUtils.getPolygonFromLimitedArea(limitedArea);
-            }
+    private void cancelCapture() {
+        if (captureTask != null) {
+            captureTask.cancel(false);
+            captureTask = null;
+        }
+    }
 
-            int index = -1;
-            for (PointF pointF : points) {
-                pointFs.put(++index, pointF);
-            }
+    private void cancelCrop() {
+        if (cropTask != null) {
+            cropTask.cancel(false);
+            cropTask = null;
+        }
+    }
 
-            polygonView.setPoints(pointFs);
-            int padding = (int) getResources().getDimension(R.dimen.scan_padding);
-            FrameLayout.LayoutParams layoutParams = new FrameLayout.LayoutParams(
-                    copyBitmap.getWidth() + 2 * padding, copyBitmap.getHeight() + 2 * padding);
-            layoutParams.gravity = Gravity.CENTER;
-            polygonView.setLayoutParams(layoutParams);
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
-                TransitionManager.beginDelayedTransition(containerScan);
-            cropLayout.setVisibility(View.VISIBLE);
-
-            cropImageView.setImageBitmap(copyBitmap);
-            cropImageView.setScaleType(ImageView.ScaleType.CENTER_INSIDE);
+    @Override
+    public void onCaptureProgress(CaptureStage stage) {
+        int message;
+        switch (stage) {
+            case DECODE:
+                message = R.string.capture_decode;
+                break;
+            case ORIENT:
+                message = R.string.capture_orient;
+                break;
+            case DETECT:
+                message = R.string.capture_detect;
+                break;
+            default:
+                message = R.string.capture_preview;
+                break;
         }
-        catch (Exception e) {
-            Log.e(TAG, e.getMessage(), e);
+        captureHintLayout.setVisibility(View.VISIBLE);
+        captureHintText.setText(getResources().getString(message));
+        captureHintLayout.setBackground(getResources().getDrawable(R.drawable.hint_white));
+    }
+
+    @Override
+    public void onCaptureCompleted(CaptureResult result) {
+        captureTask = null;
+        displayHint(NO_MESSAGE);
+        copyBitmap = result.bitmap;
+        otherDocuments.clear();
+        otherDocuments.addAll(result.otherDocuments);
+        ArrayList<PointF> points = mImageSurfaceView.getAcquisitionMode() == ScanSurfaceView.AcquisitionMode.MANUAL_MODE
+                ? ScanUtils.getPolygonFromLimitedArea(limitedArea) : result.points;
+
+        Map<Integer, PointF> pointFs = new HashMap<>();
+        int index = -1;
+        for (PointF pointF : points) {
+            pointFs.put(++index, pointF);
         }
+
+        polygonView.setPoints(pointFs);
+        int padding = (int) getResources().getDimension(R.dimen.scan_padding);
+        FrameLayout.LayoutParams layoutParams = new FrameLayout.LayoutParams(
+                copyBitmap.getWidth() + 2 * padding, copyBitmap.getHeight() + 2 * padding);
+        layoutParams.gravity = Gravity.CENTER;
+        polygonView.setLayoutParams(layoutParams);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+            TransitionManager.beginDelayedTransition(containerScan);
+        cropLayout.setVisibility(View.VISIBLE);
+
+        cropImageView.setImageBitmap(copyBitmap);
+        cropImageView.setScaleType(ImageView.ScaleType.CENTER_INSIDE);
+    }
+
+    @Override
+    public void onCaptureError(String message) {
+        Log.e(TAG, "Capture processing failed: " + message);
+        captureTask = null;
+        displayHint(NO_MESSAGE);
+        openCameraView();
     }
 
     private synchronized void showProgressDialog(String message) {
@@ -440,6 +479,21 @@ public class ScanActivity extends AppCompatActivity implements IScanner, View.On
 
         Bitmap croppedBitmap;
 
+        if (!otherDocuments.isEmpty() && ScanUtils.isScanPointsValid(points)) {
+            // The adjusted document first, then the others as they were detected
+            List<Point[]> documents = new ArrayList<>();
+            documents.add(new Point[] {
+                    new Point(points.get(0).x, points.get(0).y),
+                    new Point(points.get(1).x, points.get(1).y),
+                    new Point(points.get(3).x, points.get(3).y),
+                    new Point(points.get(2).x, points.get(2).y) });
+            documents.addAll(otherDocuments);
+            cancelCrop();
+            cropTask = new CropTask(this, this, copyBitmap, documents);
+            cropTask.execute();
+            return;
+        }
+
         if (ScanUtils.isScanPointsValid(points)) {
             Point point1 = new Point(points.get(0).x, points.get(0).y);
             Point point2 = new Point(points.get(1).x, points.get(1).y);
@@ -456,10 +510,15 @@ public class ScanActivity extends AppCompatActivity implements IScanner, View.On
 
     @Override
     public void onCompleted(String[] paths) {
-        setResult(Activity.RESULT_OK, new Intent()
+        Intent data = new Intent()
                 .putExtra(ScanConstants.PATH_RESULT, paths[0])
                 .putExtra(ScanConstants.TYPE_RESULT, paths[1])
-                .putExtra(ScanConstants.ACQUISITION_MODE, mImageSurfaceView.getAcquisitionMode().toString()));
+                .putExtra(ScanConstants.ACQUISITION_MODE, mImageSurfaceView.getAcquisitionMode().toString());
+        // Saved images also list every document of the photo
+        if (paths.length > 2 && paths[2] != null) {
+            data.putExtra(ScanConstants.PATHS_RESULT, Arrays.copyOfRange(paths, 2, paths.length));
+        }
+        setResult(Activity.RESULT_OK, data);
         finish();
     }
 
@@ -12,6 +12,16 @@ public class ScanConstants {
      */
     public static final String TYPE_RESULT = "type";
 
+    /**
+     * Campo JSON con i path di tutti i documenti ritagliati dalla stessa foto
+     */
+    public static final String PATHS_RESULT = "paths";
+
+    /**
+     * Extra per rilevare e ritagliare più documenti dalla stessa foto
+     */
+    public static final String MULTI_DOCUMENT = "multiDocument";
+
     /**
      * Campo JSON per identificare la modalità di acquisizione
      */
@@ -26,14 +36,165 @@ public class ScanConstants {
     public static final String[] MIME_TYPES = { "image/*", "application/pdf" };
 
     /**
-     * Intervallo per acquisizione del frame
+     * Intervallo iniziale per acquisizione del frame, finché non è stato misurato il tempo di detection
      */
     public static final int INTERVAL_FRAME = 700;
 
+    /**
+     * Frazione di un core della CPU utilizzabile dalla detection
+     */
+    public static final float DETECTION_CPU_BUDGET = 0.5f;
+
+    /**
+     * Frazione di un core della CPU utilizzabile dalla detection con batteria scarica o risparmio energetico
+     */
+    public static final float DETECTION_LOW_POWER_BUDGET = 0.15f;
+
+    /**
+     * Intervallo minimo e massimo in millisecondi tra due frame elaborati
+     */
+    public static final int DETECTION_MIN_INTERVAL = 33;
+    public static final int DETECTION_MAX_INTERVAL = 1500;
+
+    /**
+     * Numero di buffer di preview riciclati tra camera e thread di elaborazione
+     */
+    public static final int PREVIEW_BUFFER_COUNT = 3;
+
+    /**
+     * Lato lungo dell'immagine ridotta su cui cercare i quadrilateri (0 per usare la risoluzione piena)
+     */
+    public static final int DETECTION_LONG_SIDE = 320;
+
+    /**
+     * Raggio minimo della finestra di rifinitura sub-pixel dei vertici a risoluzione piena
+     */
+    public static final int CORNER_REFINE_RADIUS = 5;
+
+    /**
+     * Raggio della rifinitura dei vertici rilevati in anteprima sulla foto scattata, in frazione del suo lato corto
+     */
+    public static final double CAPTURE_REFINE_RATIO = 0.02;
+
+    /**
+     * Numero massimo di frame in cui i vertici vengono solo tracciati prima di ripetere la detection completa
+     */
+    public static final int TRACKING_REDETECT_INTERVAL = 10;
+
+    /**
+     * Margine attorno al riquadro dell'ultimo documento entro cui ripetere la detection, in frazione del suo lato
+     */
+    public static final double ROI_MARGIN_RATIO = 0.15;
+
+    /**
+     * Numero massimo di detection consecutive limitate attorno all'ultimo documento prima di una detection sull'intero frame
+     */
+    public static final int ROI_FULL_FRAME_INTERVAL = 5;
+
+    /**
+     * Errore massimo del flusso ottico per considerare affidabile un vertice tracciato
+     */
+    public static final float TRACKING_MAX_ERROR = 20f;
+
+    /**
+     * Variazione massima dell'area del quadrilatero tracciato tra due frame consecutivi
+     */
+    public static final double TRACKING_MAX_AREA_CHANGE = 1.25;
+
+    /**
+     * Differenza media di grigio tra frame consecutivi oltre la quale la detection viene saltata
+     */
+    public static final double GATE_MAX_MOTION = 12;
+
+    /**
+     * Varianza minima del Laplaciano dell'immagine ridotta per eseguire la detection
+     */
+    public static final double GATE_MIN_SHARPNESS = 40;
+
+    /**
+     * Numero massimo di contorni candidati su cui cercare il quadrilatero
+     */
+    public static final int CANDIDATE_MAX_COUNT = 5;
+
+    /**
+     * Area minima di un contorno candidato, in frazione dell'area dell'immagine
+     */
+    public static final double CANDIDATE_MIN_AREA_RATIO = 0.02;
+
+    /**
+     * Rapporto massimo tra lato lungo e lato corto del rettangolo che contiene un contorno candidato
+     */
+    public static final double CANDIDATE_MAX_ASPECT_RATIO = 10;
+
+    /**
+     * Punteggio minimo perché un quadrilatero sia considerato un documento, da 0 a 1
+     */
+    public static final double QUAD_MIN_CONFIDENCE = 0.6;
+
+    /**
+     * Tempo massimo in millisecondi del rilevamento per segmenti, usato quando i contorni non trovano il documento
+     */
+    public static final long HOUGH_TIME_BUDGET_MS = 8;
+
+    /**
+     * Lato lungo massimo della mappa dei bordi su cui cercare i segmenti, le mappe più grandi vengono ridotte
+     */
+    public static final int HOUGH_MAX_LONG_SIDE = 320;
+
+    /**
+     * Modello di segmentazione del documento (TensorFlow, frozen graph) cercato tra gli asset
+     */
+    public static final String DNN_MODEL_ASSET = "document_segmentation.pb";
+
+    /**
+     * Lato dell'immagine quadrata in ingresso alla rete
+     */
+    public static final int DNN_INPUT_SIZE = 256;
+
+    /**
+     * Numero di thread di OpenCV impostato alla creazione della rete, valido per tutto il processo
+     */
+    public static final int DNN_THREADS = 2;
+
+    /**
+     * Tempo massimo in millisecondi della rete per frame, oltre il quale si usa il rilevamento classico
+     */
+    public static final long DNN_TIME_BUDGET_MS = 40;
+
+    /**
+     * Numero massimo di documenti rilevati e ritagliati da una sola foto
+     */
+    public static final int MULTI_DOCUMENT_MAX_COUNT = 8;
+
+    /**
+     * Distanza massima di un vertice rilevato da quello previsto dal filtro, in frazione della diagonale del frame
+     */
+    public static final double KALMAN_OUTLIER_GATE = 0.1;
+
+    /**
+     * Numero di frame consecutivi senza rilevamento valido prima che il filtro perda l'aggancio
+     */
+    public static final int KALMAN_MAX_MISSES = 3;
+
+    /**
+     * Intervallo massimo in millisecondi su cui estrapolare i vertici filtrati
+     */
+    public static final int KALMAN_MAX_PREDICTION_MS = 200;
+
     /**
      * Soglia minima dello sfondo
      */
     public static final int BACKGROUND_THRESHOLD = 155;
+
+    /**
+     * Spessore delle strisce di bordo usate per stimare lo sfondo, in frazione del lato corto
+     */
+    public static final double BACKGROUND_STRIP_RATIO = 0.05;
+
+    /**
+     * Numero massimo di Mat inutilizzate conservate da ciascun pool per essere riusate
+     */
+    public static final int MAT_POOL_MAX_SIZE = 8;
     public static final int HIGHER_SAMPLING_THRESHOLD = 2200;
     public static final int PHOTO_QUALITY = 70;
 
@@ -0,0 +1,11 @@
+package com.mobimentum.liveedgedetection.enums;
+
+/**
+ * Enum that defines the stages of the processing of a captured picture
+ */
+public enum CaptureStage {
+    DECODE,
+    ORIENT,
+    DETECT,
+    PREVIEW
+}
@@ -0,0 +1,27 @@
+package com.mobimentum.liveedgedetection.enums;
+
+/**
+ * Enum that defines the timed stages of the live detection
+ */
+public enum DetectionStage {
+    FRAME_COPY,
+    RESIZE,
+    MOTION,
+    SHARPNESS,
+    BACKGROUND,
+    BLUR,
+    BILATERAL,
+    THRESHOLD,
+    BORDER,
+    CANNY,
+    DILATE,
+    FIND_CONTOURS,
+    APPROX_POLY,
+    HOUGH,
+    ROI,
+    DNN,
+    TRACK,
+    REFINE,
+    FILTER,
+    TOTAL
+}
@@ -0,0 +1,10 @@
+package com.mobimentum.liveedgedetection.enums;
+
+/**
+ * Enum that defines the detectors that can find a quadrilateral
+ */
+public enum DetectorType {
+    CONTOUR,
+    HOUGH,
+    DNN
+}
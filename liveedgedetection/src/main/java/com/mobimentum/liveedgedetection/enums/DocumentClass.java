@@ -0,0 +1,22 @@
+package com.mobimentum.liveedgedetection.enums;
+
+/**
+ * Enum that defines the document shapes, by the range of the ratio between long and short side
+ */
+public enum DocumentClass {
+    RECEIPT(1.8, 10),
+    // 297 x 210 mm
+    A4(1.36, 1.47),
+    // 11 x 8.5 in
+    LETTER(1.24, 1.35),
+    // 85.6 x 54 mm
+    ID1(1.52, 1.65);
+
+    public final double minAspectRatio;
+    public final double maxAspectRatio;
+
+    DocumentClass(double minAspectRatio, double maxAspectRatio) {
+        this.minAspectRatio = minAspectRatio;
+        this.maxAspectRatio = maxAspectRatio;
+    }
+}
@@ -0,0 +1,11 @@
+package com.mobimentum.liveedgedetection.enums;
+
+/**
+ * Enum that defines the preprocessing presets of the edge detection
+ */
+public enum PipelinePreset {
+    // Gaussian blur and a single dilation with a large kernel, for low end devices
+    FAST,
+    // Bilateral filter and iterated dilation, the original chain
+    ACCURATE
+}
@@ -0,0 +1,14 @@
+package com.mobimentum.liveedgedetection.interfaces;
+
+import com.mobimentum.liveedgedetection.enums.CaptureStage;
+import com.mobimentum.liveedgedetection.view.CaptureResult;
+
+/**
+ * Receives the progress and the outcome of the processing of a captured picture, on the UI thread
+ */
+
+public interface ICaptureListener {
+    void onCaptureProgress(CaptureStage stage);
+    void onCaptureCompleted(CaptureResult result);
+    void onCaptureError(String message);
+}
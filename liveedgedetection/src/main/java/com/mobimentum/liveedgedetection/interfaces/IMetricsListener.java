@@ -0,0 +1,11 @@
+package com.mobimentum.liveedgedetection.interfaces;
+
+import com.mobimentum.liveedgedetection.util.DetectionMetrics;
+
+/**
+ * Receives the detection timings, on the processing thread
+ */
+
+public interface IMetricsListener {
+    void onDetectionMetrics(DetectionMetrics metrics);
+}
@@ -1,14 +1,22 @@
 package com.mobimentum.liveedgedetection.interfaces;
 
-import android.graphics.Bitmap;
-
 import com.mobimentum.liveedgedetection.enums.ScanHint;
 
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+
 /**
  * Interface between activity and surface view
  */
 
 public interface IScanner {
     void displayHint(ScanHint scanHint);
-    void onPictureClicked(Bitmap bitmap);
+
+    /**
+     * @param data           JPEG picture as delivered by the camera, in landscape
+     * @param previewCorners document confirmed on the live preview just before the capture, or
+     *                       null when there was none
+     * @param previewSize    size of the preview frame of previewCorners
+     */
+    void onPictureTaken(byte[] data, Point[] previewCorners, Size previewSize);
 }
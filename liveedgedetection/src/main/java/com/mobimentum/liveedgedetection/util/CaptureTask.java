@@ -0,0 +1,273 @@
+package com.mobimentum.liveedgedetection.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.graphics.PointF;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import com.mobimentum.liveedgedetection.enums.CaptureStage;
+import com.mobimentum.liveedgedetection.interfaces.ICaptureListener;
+import com.mobimentum.liveedgedetection.view.CaptureResult;
+import com.mobimentum.liveedgedetection.view.Quadrilateral;
+
+import org.opencv.android.Utils;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.CAPTURE_REFINE_RATIO;
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.CORNER_REFINE_RADIUS;
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.HIGHER_SAMPLING_THRESHOLD;
+
+/**
+ * Prepares a captured picture for the crop view off the UI thread: decodes it, orients it and
+ * scales it to the screen, finds the document on it and builds the polygon. The listener hears
+ * of each stage as it starts. Once the task is cancelled it stops at the next stage and its
+ * result is dropped.
+ */
+public class CaptureTask extends AsyncTask<Void, CaptureStage, CaptureResult> {
+
+    private static final String TAG = CaptureTask.class.getSimpleName();
+
+    // Quads smaller than this fraction of the picture are not taken for the document
+    private static final double MIN_AREA_RATIO = 0.08;
+
+    private final Context context;
+    private final WeakReference<ICaptureListener> listenerReference;
+    private final int width;
+    private final int height;
+    private byte[] jpeg;
+    private Uri uri;
+    private Point[] previewCorners;
+    private Size previewSize;
+    private boolean detect = true;
+    private boolean multiDocument;
+    private String error;
+
+    /**
+     * @param width  width of the picture shown in the crop view
+     * @param height height of the picture shown in the crop view
+     */
+    public CaptureTask(Context context, ICaptureListener listener, int width, int height) {
+        this.context = context.getApplicationContext();
+        this.listenerReference = new WeakReference<>(listener);
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Processes a picture taken by the camera in landscape
+     *
+     * @param previewCorners document confirmed on the live preview just before the capture, null
+     *                       when there was none. Its corners are refined instead of running a
+     *                       new detection.
+     * @param previewSize    size of the preview frame of previewCorners
+     */
+    public CaptureTask setJpeg(byte[] jpeg, Point[] previewCorners, Size previewSize) {
+        this.jpeg = jpeg;
+        this.previewCorners = previewCorners;
+        this.previewSize = previewSize;
+        return this;
+    }
+
+    /**
+     * Processes an image picked from the device, oriented as its EXIF data says
+     */
+    public CaptureTask setUri(Uri uri) {
+        this.uri = uri;
+        return this;
+    }
+
+    /**
+     * @param detect        false to skip the document search, as in manual mode
+     * @param multiDocument true to search every document of the picture
+     */
+    public CaptureTask setDetection(boolean detect, boolean multiDocument) {
+        this.detect = detect;
+        this.multiDocument = multiDocument;
+        return this;
+    }
+
+    @Override
+    protected CaptureResult doInBackground(Void... voids) {
+        Bitmap bitmap = null;
+        try {
+            publishProgress(CaptureStage.DECODE);
+            Bitmap picture = jpeg != null
+                    ? ScanUtils.decodeBitmapFromByteArray(jpeg, HIGHER_SAMPLING_THRESHOLD, HIGHER_SAMPLING_THRESHOLD)
+                    : MediaStore.Images.Media.getBitmap(context.getContentResolver(), uri);
+            if (picture == null) {
+                error = "Unreadable picture";
+                return null;
+            }
+            if (isCancelled()) {
+                picture.recycle();
+                return null;
+            }
+
+            publishProgress(CaptureStage.ORIENT);
+            bitmap = orient(picture);
+            if (isCancelled()) {
+                bitmap.recycle();
+                return null;
+            }
+
+            publishProgress(CaptureStage.DETECT);
+            ArrayList<PointF> points = null;
+            List<Point[]> otherDocuments = new ArrayList<>();
+            if (detect) {
+                Point[] corners = previewCorners != null && !multiDocument
+                        ? refine(bitmap) : detect(bitmap, otherDocuments);
+                if (corners != null) {
+                    points = ScanUtils.getPolygonFromCorners(corners);
+                }
+            }
+            if (isCancelled()) {
+                bitmap.recycle();
+                return null;
+            }
+
+            publishProgress(CaptureStage.PREVIEW);
+            if (points == null) {
+                points = ScanUtils.getPolygonDefaultPoints(bitmap);
+            }
+            // Uploads the pixels now rather than on the first frame of the crop view
+            bitmap.prepareToDraw();
+            return new CaptureResult(bitmap, points, otherDocuments);
+        }
+        catch (Exception e) {
+            Log.e(TAG, e.getMessage(), e);
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+            error = e.getMessage();
+            return null;
+        }
+        finally {
+            // The picture-sized buffers will not be asked for again before the next capture
+            MatPool.SHARED.clear();
+        }
+    }
+
+    /**
+     * @return the picture upright and scaled to the crop view. The picture itself is recycled.
+     */
+    private Bitmap orient(Bitmap picture) throws Exception {
+        Bitmap bitmap;
+        if (jpeg != null) {
+            // Camera pictures are landscape: a single transform rotates and scales them
+            Matrix matrix = new Matrix();
+            matrix.postRotate(90);
+            matrix.postScale((float) width / picture.getHeight(), (float) height / picture.getWidth());
+            bitmap = Bitmap.createBitmap(picture, 0, 0, picture.getWidth(), picture.getHeight(), matrix, true);
+        }
+        else {
+            Bitmap oriented = ScanUtils.modifyOrientation(context, picture, uri);
+            if (oriented == null) {
+                oriented = picture;
+            }
+            bitmap = ScanUtils.resizeToScreenContentSize(oriented, width, height);
+        }
+        if (bitmap != picture) {
+            picture.recycle();
+        }
+        return bitmap;
+    }
+
+    /**
+     * Moves the corners found on the live preview to the sub-pixel corners of the picture
+     */
+    private Point[] refine(Bitmap bitmap) {
+        Point[] corners = ScanUtils.previewToPicture(previewCorners, previewSize, bitmap.getWidth(),
+                bitmap.getHeight());
+        int radius = Math.max(CORNER_REFINE_RADIUS, (int) Math.round(CAPTURE_REFINE_RATIO
+                * Math.min(bitmap.getWidth(), bitmap.getHeight())));
+        try (MatScope scope = new MatScope()) {
+            Mat rgba = scope.borrow(MatPool.SHARED, bitmap.getHeight(), bitmap.getWidth(), CvType.CV_8UC4);
+            Utils.bitmapToMat(bitmap, rgba);
+            Mat gray = scope.borrow(MatPool.SHARED, bitmap.getHeight(), bitmap.getWidth(), CvType.CV_8UC1);
+            Imgproc.cvtColor(rgba, gray, Imgproc.COLOR_RGBA2GRAY);
+            ScanUtils.refineCorners(gray, corners, radius);
+        }
+        catch (Exception e) {
+            Log.w(TAG, "Corner refinement failed, keeping the preview corners", e);
+        }
+        return corners;
+    }
+
+    /**
+     * @param otherDocuments receives the other documents in multi document mode
+     * @return corners of the best document, or null
+     */
+    private Point[] detect(Bitmap bitmap, List<Point[]> otherDocuments) {
+        try (MatScope scope = new MatScope()) {
+            Mat originalMat = scope.borrow(MatPool.SHARED, bitmap.getHeight(), bitmap.getWidth(), CvType.CV_8UC4);
+            Utils.bitmapToMat(bitmap, originalMat);
+            Quadrilateral quad;
+            if (multiDocument) {
+                List<Quadrilateral> documents = ScanUtils.detectQuadrilaterals(originalMat);
+                for (Quadrilateral document : documents) {
+                    scope.add(document.contour);
+                }
+                quad = documents.isEmpty() ? null : documents.get(0);
+                for (int i = 1; i < documents.size(); i++) {
+                    otherDocuments.add(documents.get(i).points);
+                }
+            }
+            else {
+                quad = ScanUtils.detectLargestQuadrilateral(originalMat);
+                if (quad != null) {
+                    scope.add(quad.contour);
+                }
+            }
+            if (quad == null) {
+                return null;
+            }
+            double resultArea = Math.abs(Imgproc.contourArea(quad.contour));
+            double previewArea = originalMat.rows() * originalMat.cols();
+            return resultArea > previewArea * MIN_AREA_RATIO ? quad.points : null;
+        }
+    }
+
+    @Override
+    protected void onProgressUpdate(CaptureStage... stages) {
+        ICaptureListener listener = listenerReference.get();
+        if (listener != null && !isCancelled()) {
+            listener.onCaptureProgress(stages[0]);
+        }
+    }
+
+    @Override
+    protected void onPostExecute(CaptureResult result) {
+        ICaptureListener listener = listenerReference.get();
+        if (listener == null) {
+            if (result != null) {
+                result.bitmap.recycle();
+            }
+            return;
+        }
+        if (result != null) {
+            listener.onCaptureCompleted(result);
+        }
+        else {
+            listener.onCaptureError(error != null ? error : "Capture processing failed");
+        }
+    }
+
+    @Override
+    protected void onCancelled(CaptureResult result) {
+        if (result != null) {
+            result.bitmap.recycle();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.mobimentum.liveedgedetection.util;
+
+import com.mobimentum.liveedgedetection.view.Quadrilateral;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Selects the few contours of an edge image that may be a document. The area and bounding box
+ * of each contour are computed once, contours that are too small or too elongated are rejected
+ * by cheap tests, and only the largest K survivors are kept, so that polygon approximation runs
+ * on a bounded number of contours however cluttered the background is.
+ */
+public class ContourCandidates {
+
+    /**
+     * A contour that passed the pre-filters, with its cached measures
+     */
+    public static class Candidate {
+        public final MatOfPoint contour;
+        public final double area;
+        public final Rect boundingBox;
+
+        Candidate(MatOfPoint contour, double area, Rect boundingBox) {
+            this.contour = contour;
+            this.area = area;
+            this.boundingBox = boundingBox;
+        }
+    }
+
+    private ContourCandidates() {
+    }
+
+    /**
+     * @param edges          CV_8UC1 edge image, modified by the contour search
+     * @param maxCandidates  number K of candidates to keep
+     * @param minAreaRatio   minimum contour area, as a fraction of the image area
+     * @param maxAspectRatio maximum ratio between the long and short side of the bounding box
+     * @return at most maxCandidates candidates, largest first. Their contours must be released
+     * with {@link #release}.
+     */
+    public static List<Candidate> find(Mat edges, int maxCandidates, double minAreaRatio, double maxAspectRatio) {
+        List<MatOfPoint> contours = new ArrayList<>();
+        Mat hierarchy = new Mat();
+        Imgproc.findContours(edges, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+        hierarchy.release();
+
+        double minArea = minAreaRatio * edges.rows() * edges.cols();
+        // Kept sorted by decreasing area: insertion into a K sized array is a partial selection
+        Candidate[] top = new Candidate[maxCandidates];
+        int count = 0;
+        for (MatOfPoint contour : contours) {
+            Candidate candidate = measure(contour, minArea, maxAspectRatio);
+            if (candidate == null || (count == maxCandidates && candidate.area <= top[count - 1].area)) {
+                contour.release();
+                continue;
+            }
+            if (count == maxCandidates) {
+                top[--count].contour.release();
+            }
+            int i = count++;
+            while (i > 0 && top[i - 1].area < candidate.area) {
+                top[i] = top[i - 1];
+                i--;
+            }
+            top[i] = candidate;
+        }
+
+        List<Candidate> candidates = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            candidates.add(top[i]);
+        }
+        return candidates;
+    }
+
+    private static Candidate measure(MatOfPoint contour, double minArea, double maxAspectRatio) {
+        if (contour.rows() < 4) {
+            return null;
+        }
+        // The bounding box is cheaper than the area and bounds it from above
+        Rect box = Imgproc.boundingRect(contour);
+        if ((double) box.width * box.height < minArea) {
+            return null;
+        }
+        double longSide = Math.max(box.width, box.height);
+        double shortSide = Math.max(1, Math.min(box.width, box.height));
+        if (longSide / shortSide > maxAspectRatio) {
+            return null;
+        }
+        double area = Imgproc.contourArea(contour);
+        if (area < minArea) {
+            return null;
+        }
+        return new Candidate(contour, area, box);
+    }
+
+    /**
+     * Approximates every candidate with a polygon and scores the ones with four vertices
+     *
+     * @param epsilonRatio approximation accuracy, as a fraction of the contour perimeter
+     * @param scorer       rates the quads
+     * @param imageArea    area of the edge image the candidates were found on
+     * @return the best scoring quad with its confidence, or null when none is accepted
+     */
+    public static Quadrilateral findBestQuadrilateral(List<Candidate> candidates, double epsilonRatio,
+                                                      QuadScorer scorer, double imageArea) {
+        float[] vertices = new float[QuadGeometry.LENGTH];
+        double[] unsorted = new double[QuadGeometry.LENGTH];
+        double[] corners = new double[QuadGeometry.LENGTH];
+        double[] best = new double[QuadGeometry.LENGTH];
+        QuadScorer.Score bestScore = null;
+        try (MatScope scope = new MatScope()) {
+            MatOfPoint2f curve = scope.add(new MatOfPoint2f());
+            MatOfPoint2f approx = scope.add(new MatOfPoint2f());
+            for (Candidate candidate : candidates) {
+                double perimeter = approximate(candidate, epsilonRatio, curve, approx, vertices, unsorted, corners);
+                if (perimeter < 0) {
+                    continue;
+                }
+                QuadScorer.Score score = scorer.score(corners, perimeter, imageArea);
+                if (scorer.isAccepted(score) && (bestScore == null || score.confidence > bestScore.confidence)) {
+                    System.arraycopy(corners, 0, best, 0, QuadGeometry.LENGTH);
+                    bestScore = score;
+                }
+            }
+        }
+        if (bestScore == null) {
+            return null;
+        }
+        // The approximated polygon is replaced by its sorted corners, which outline the same quad
+        Point[] points = QuadGeometry.toPoints(best);
+        return new Quadrilateral(new MatOfPoint2f(points), points, bestScore.confidence, bestScore.documentClass);
+    }
+
+    /**
+     * Approximates every candidate with a polygon and keeps the accepted quads that do not
+     * overlap a better scoring one
+     *
+     * @param maxCount maximum number of quads returned
+     * @return the quads, best scoring first. Their contours must be released by the caller.
+     */
+    public static List<Quadrilateral> findQuadrilaterals(List<Candidate> candidates, double epsilonRatio,
+                                                         QuadScorer scorer, double imageArea, int maxCount) {
+        float[] vertices = new float[QuadGeometry.LENGTH];
+        double[] unsorted = new double[QuadGeometry.LENGTH];
+        List<double[]> accepted = new ArrayList<>();
+        List<QuadScorer.Score> scores = new ArrayList<>();
+        try (MatScope scope = new MatScope()) {
+            MatOfPoint2f curve = scope.add(new MatOfPoint2f());
+            MatOfPoint2f approx = scope.add(new MatOfPoint2f());
+            for (Candidate candidate : candidates) {
+                double[] corners = new double[QuadGeometry.LENGTH];
+                double perimeter = approximate(candidate, epsilonRatio, curve, approx, vertices, unsorted, corners);
+                if (perimeter < 0) {
+                    continue;
+                }
+                QuadScorer.Score score = scorer.score(corners, perimeter, imageArea);
+                if (!scorer.isAccepted(score)) {
+                    continue;
+                }
+                // Insertion keeps the list sorted by decreasing confidence
+                int i = scores.size();
+                while (i > 0 && scores.get(i - 1).confidence < score.confidence) {
+                    i--;
+                }
+                accepted.add(i, corners);
+                scores.add(i, score);
+            }
+        }
+
+        List<double[]> kept = new ArrayList<>();
+        List<Quadrilateral> quads = new ArrayList<>();
+        for (int i = 0; i < accepted.size() && quads.size() < maxCount; i++) {
+            double[] corners = accepted.get(i);
+            boolean overlapping = false;
+            for (double[] other : kept) {
+                if (QuadGeometry.overlaps(corners, other)) {
+                    overlapping = true;
+                    break;
+                }
+            }
+            if (overlapping) {
+                continue;
+            }
+            kept.add(corners);
+            Point[] points = QuadGeometry.toPoints(corners);
+            QuadScorer.Score score = scores.get(i);
+            quads.add(new Quadrilateral(new MatOfPoint2f(points), points, score.confidence, score.documentClass));
+        }
+        return quads;
+    }
+
+    /**
+     * Approximates the contour of a candidate with a polygon
+     *
+     * @param corners receives the sorted corners when the polygon has four vertices
+     * @return the perimeter of the contour, or -1 when the polygon is not a quad
+     */
+    private static double approximate(Candidate candidate, double epsilonRatio, MatOfPoint2f curve,
+                                      MatOfPoint2f approx, float[] vertices, double[] unsorted, double[] corners) {
+        candidate.contour.convertTo(curve, CvType.CV_32FC2);
+        double perimeter = Imgproc.arcLength(curve, true);
+        Imgproc.approxPolyDP(curve, approx, epsilonRatio * perimeter, true);
+        if (approx.rows() != 4) {
+            return -1;
+        }
+        approx.get(0, 0, vertices);
+        QuadGeometry.set(unsorted, vertices);
+        QuadGeometry.sort(unsorted, corners);
+        return perimeter;
+    }
+
+    public static void release(List<Candidate> candidates) {
+        for (Candidate candidate : candidates) {
+            candidate.contour.release();
+        }
+    }
+}
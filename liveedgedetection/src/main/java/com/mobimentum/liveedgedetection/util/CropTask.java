@@ -0,0 +1,94 @@
+package com.mobimentum.liveedgedetection.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import org.opencv.core.Point;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Crops the documents of a picture off the UI thread and then saves them, see
+ * {@link ScanUtils#enhanceReceipts(Bitmap, List)}. When the documents cannot all be cropped,
+ * only the first one is cropped and saved. Once the task is cancelled nothing is saved.
+ */
+public class CropTask extends AsyncTask<Void, Void, List<Bitmap>> {
+
+    private static final String TAG = CropTask.class.getSimpleName();
+
+    private final Context context;
+    private final WeakReference<ScanUtils.OnSaveListener> listenerReference;
+    private final Bitmap image;
+    private final List<Point[]> documents;
+    private String error;
+
+    /**
+     * @param documents corners of each document, ordered top-left, top-right, bottom-right,
+     *                  bottom-left
+     */
+    public CropTask(Context context, ScanUtils.OnSaveListener listener, Bitmap image, List<Point[]> documents) {
+        this.context = context.getApplicationContext();
+        this.listenerReference = new WeakReference<>(listener);
+        this.image = image;
+        this.documents = documents;
+    }
+
+    @Override
+    protected List<Bitmap> doInBackground(Void... voids) {
+        try {
+            return crop();
+        }
+        finally {
+            // The picture-sized buffers will not be asked for again
+            MatPool.SHARED.clear();
+        }
+    }
+
+    private List<Bitmap> crop() {
+        try {
+            return ScanUtils.enhanceReceipts(image, documents);
+        }
+        catch (InterruptedException e) {
+            return null;
+        }
+        catch (Exception e) {
+            Log.e(TAG, "Crop of the documents failed, keeping the first one only", e);
+        }
+        try {
+            Point[] corners = documents.get(0);
+            return Collections.singletonList(ScanUtils.enhanceReceipt(image, corners[0], corners[1], corners[3],
+                    corners[2]));
+        }
+        catch (Exception e) {
+            Log.e(TAG, e.getMessage(), e);
+            error = e.getMessage();
+            return null;
+        }
+    }
+
+    @Override
+    protected void onPostExecute(List<Bitmap> bitmaps) {
+        ScanUtils.OnSaveListener listener = listenerReference.get();
+        if (listener == null) {
+            return;
+        }
+        if (bitmaps == null) {
+            listener.onError(error != null ? error : "Crop failed");
+            return;
+        }
+        ScanUtils.saveToInternalMemory(context, bitmaps, listener);
+    }
+
+    @Override
+    protected void onCancelled(List<Bitmap> bitmaps) {
+        if (bitmaps != null) {
+            for (Bitmap bitmap : bitmaps) {
+                bitmap.recycle();
+            }
+        }
+    }
+}
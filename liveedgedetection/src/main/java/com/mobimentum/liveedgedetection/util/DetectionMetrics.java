@@ -0,0 +1,212 @@
+package com.mobimentum.liveedgedetection.util;
+
+import com.mobimentum.liveedgedetection.enums.DetectionStage;
+import com.mobimentum.liveedgedetection.interfaces.IMetricsListener;
+
+import java.util.Arrays;
+
+/**
+ * Per-stage timing of the detection, kept in fixed size histograms with logarithmic buckets
+ * (four per octave, from 1 us to about 4 s), so that recording a duration never allocates.
+ * Percentiles are therefore approximated by the upper bound of their bucket, within 19%.
+ * <p>
+ * Stages are timed as laps: {@link #start()} returns a timestamp and every {@link #lap} records
+ * the time elapsed since the previous one and returns the new timestamp.
+ * <p>
+ * Frames are also counted, together with the ones whose detection only searched the region
+ * around the previous quad, whose cost is the ROI stage.
+ */
+public class DetectionMetrics {
+
+    private static final int BUCKETS = 88;
+    private static final double BUCKETS_PER_OCTAVE = 4;
+    private static final double LOG_2 = Math.log(2);
+
+    private final long[][] histograms = new long[DetectionStage.values().length][BUCKETS];
+    private final long[] counts = new long[histograms.length];
+    private final long[] totalNanos = new long[histograms.length];
+    private final long[] maxNanos = new long[histograms.length];
+
+    private long frames;
+    private long roiFrames;
+    private boolean frameRoi;
+    private volatile boolean lastFrameRoi;
+
+    private volatile boolean enabled = true;
+    private IMetricsListener listener;
+    private int reportInterval;
+    private int framesSinceReport;
+
+    /**
+     * @return the current timestamp, or 0 when the metrics are disabled
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time elapsed since startNanos for the given stage
+     *
+     * @return the current timestamp, to time the next stage
+     */
+    public long lap(DetectionStage stage, long startNanos) {
+        if (!enabled || startNanos == 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        record(stage, now - startNanos);
+        return now;
+    }
+
+    public synchronized void record(DetectionStage stage, long nanos) {
+        if (!enabled) {
+            return;
+        }
+        int index = stage.ordinal();
+        histograms[index][bucketOf(nanos)]++;
+        counts[index]++;
+        totalNanos[index] += nanos;
+        if (nanos > maxNanos[index]) {
+            maxNanos[index] = nanos;
+        }
+    }
+
+    /**
+     * Marks the frame being processed as searched only in the region around the previous quad
+     */
+    public synchronized void setFrameRoi(boolean roi) {
+        frameRoi = roi;
+    }
+
+    /**
+     * Marks the end of a frame, notifying the listener every reportInterval frames
+     */
+    public void onFrameFinished() {
+        IMetricsListener report = null;
+        synchronized (this) {
+            frames++;
+            if (frameRoi) {
+                roiFrames++;
+            }
+            lastFrameRoi = frameRoi;
+            frameRoi = false;
+            if (listener != null && ++framesSinceReport >= reportInterval) {
+                framesSinceReport = 0;
+                report = listener;
+            }
+        }
+        if (report != null) {
+            report.onDetectionMetrics(this);
+        }
+    }
+
+    /**
+     * @param listener       notified on the processing thread, null to stop the reports
+     * @param reportInterval number of frames between two reports
+     */
+    public synchronized void setListener(IMetricsListener listener, int reportInterval) {
+        this.listener = listener;
+        this.reportInterval = Math.max(1, reportInterval);
+        framesSinceReport = 0;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param percentile between 0 and 100, e.g. 50, 95 or 99
+     * @return the duration in milliseconds below which the given percentile of the samples fall,
+     * or 0 when the stage has no samples
+     */
+    public synchronized double getPercentileMillis(DetectionStage stage, double percentile) {
+        int index = stage.ordinal();
+        if (counts[index] == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(counts[index] * percentile / 100);
+        long seen = 0;
+        long[] histogram = histograms[index];
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram[i];
+            if (seen >= rank && seen > 0) {
+                // Upper bound of the bucket, capped by the slowest sample seen
+                return Math.min(Math.pow(2, (i + 1) / BUCKETS_PER_OCTAVE) / 1000, maxNanos[index] / 1e6);
+            }
+        }
+        return maxNanos[index] / 1e6;
+    }
+
+    public double getP50Millis(DetectionStage stage) {
+        return getPercentileMillis(stage, 50);
+    }
+
+    public double getP95Millis(DetectionStage stage) {
+        return getPercentileMillis(stage, 95);
+    }
+
+    public double getP99Millis(DetectionStage stage) {
+        return getPercentileMillis(stage, 99);
+    }
+
+    public synchronized double getMeanMillis(DetectionStage stage) {
+        int index = stage.ordinal();
+        return counts[index] == 0 ? 0 : totalNanos[index] / 1e6 / counts[index];
+    }
+
+    public synchronized double getMaxMillis(DetectionStage stage) {
+        return maxNanos[stage.ordinal()] / 1e6;
+    }
+
+    public synchronized long getCount(DetectionStage stage) {
+        return counts[stage.ordinal()];
+    }
+
+    /**
+     * @return true when the last finished frame was only searched in the region around the
+     * previous quad. Safe to call from any thread.
+     */
+    public boolean isLastFrameRoi() {
+        return lastFrameRoi;
+    }
+
+    public synchronized long getFrameCount() {
+        return frames;
+    }
+
+    public synchronized long getRoiFrameCount() {
+        return roiFrames;
+    }
+
+    /**
+     * @return fraction of the frames only searched in the region around the previous quad
+     */
+    public synchronized double getRoiFrameRatio() {
+        return frames == 0 ? 0 : (double) roiFrames / frames;
+    }
+
+    public synchronized void reset() {
+        frames = 0;
+        roiFrames = 0;
+        for (int i = 0; i < histograms.length; i++) {
+            Arrays.fill(histograms[i], 0);
+            counts[i] = 0;
+            totalNanos[i] = 0;
+            maxNanos[i] = 0;
+        }
+        framesSinceReport = 0;
+    }
+
+    private static int bucketOf(long nanos) {
+        double micros = nanos / 1000.0;
+        if (micros <= 1) {
+            return 0;
+        }
+        int bucket = (int) (BUCKETS_PER_OCTAVE * Math.log(micros) / LOG_2);
+        return Math.min(BUCKETS - 1, bucket);
+    }
+}
@@ -0,0 +1,128 @@
+package com.mobimentum.liveedgedetection.util;
+
+import com.mobimentum.liveedgedetection.enums.PipelinePreset;
+
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.HOUGH_TIME_BUDGET_MS;
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.MULTI_DOCUMENT_MAX_COUNT;
+
+/**
+ * Parameters of a detection run by {@link ScanUtils}. A new instance holds the defaults used
+ * on whole pictures: full resolution, accurate pipeline, default scorer, line based fallback
+ * within HOUGH_TIME_BUDGET_MS and buffers from {@link MatPool#SHARED}. The setters return the
+ * instance, so that callers change only what differs.
+ * <p>
+ * Instances are mutable, so that a detector can keep one and update it on every frame without
+ * allocating. They must not be shared between threads.
+ */
+public class DetectionOptions {
+
+    private double scale = 1;
+    private DetectionPipeline pipeline = DetectionPipeline.forPreset(PipelinePreset.ACCURATE);
+    private QuadScorer scorer = QuadScorer.DEFAULT;
+    private long houghBudgetMillis = HOUGH_TIME_BUDGET_MS;
+    private double imageArea;
+    private int maxCount = MULTI_DOCUMENT_MAX_COUNT;
+    private MatPool pool = MatPool.SHARED;
+    private DetectionMetrics metrics;
+
+    /**
+     * @param scale ratio between the size of the image searched and the size of the original
+     *              frame: filter, threshold and dilation sizes are scaled so that they cover the
+     *              same area they would cover on the full resolution frame
+     */
+    public DetectionOptions setScale(double scale) {
+        this.scale = scale;
+        return this;
+    }
+
+    public double getScale() {
+        return scale;
+    }
+
+    /**
+     * @param pipeline preprocessing producing the edge image
+     */
+    public DetectionOptions setPipeline(DetectionPipeline pipeline) {
+        this.pipeline = pipeline;
+        return this;
+    }
+
+    public DetectionPipeline getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * @param scorer picks the most document-like quads among the candidates
+     */
+    public DetectionOptions setScorer(QuadScorer scorer) {
+        this.scorer = scorer;
+        return this;
+    }
+
+    public QuadScorer getScorer() {
+        return scorer;
+    }
+
+    /**
+     * @param houghBudgetMillis time the line based fallback may take when no contour makes a
+     *                          document, 0 to disable it. Only used for the largest document.
+     */
+    public DetectionOptions setHoughBudgetMillis(long houghBudgetMillis) {
+        this.houghBudgetMillis = houghBudgetMillis;
+        return this;
+    }
+
+    public long getHoughBudgetMillis() {
+        return houghBudgetMillis;
+    }
+
+    /**
+     * @param imageArea area the quads are scored against, 0 for the area of the image searched.
+     *                  When the image is a region of a larger frame, passing the area of the
+     *                  frame keeps the scores comparable with the ones of full frame detections.
+     */
+    public DetectionOptions setImageArea(double imageArea) {
+        this.imageArea = imageArea;
+        return this;
+    }
+
+    public double getImageArea() {
+        return imageArea;
+    }
+
+    /**
+     * @param maxCount maximum number of documents returned when searching all of them
+     */
+    public DetectionOptions setMaxCount(int maxCount) {
+        this.maxCount = maxCount;
+        return this;
+    }
+
+    public int getMaxCount() {
+        return maxCount;
+    }
+
+    /**
+     * @param pool lends the working buffers, {@link MatPool#PREVIEW} on the live preview
+     */
+    public DetectionOptions setPool(MatPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    public MatPool getPool() {
+        return pool;
+    }
+
+    /**
+     * @param metrics receives the duration of each stage, null for none
+     */
+    public DetectionOptions setMetrics(DetectionMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    public DetectionMetrics getMetrics() {
+        return metrics;
+    }
+}
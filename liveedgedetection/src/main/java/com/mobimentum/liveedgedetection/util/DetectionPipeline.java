@@ -0,0 +1,330 @@
+package com.mobimentum.liveedgedetection.util;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.Build;
+
+import com.mobimentum.liveedgedetection.enums.DetectionStage;
+import com.mobimentum.liveedgedetection.enums.PipelinePreset;
+import com.mobimentum.liveedgedetection.view.BackgroundStats;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import static org.opencv.imgproc.Imgproc.ADAPTIVE_THRESH_MEAN_C;
+import static org.opencv.imgproc.Imgproc.THRESH_BINARY_INV;
+
+/**
+ * Chain of preprocessing stages turning a grayscale frame into the edge image on which contours
+ * are searched. Stage parameters are given for a full resolution frame and scaled to the size
+ * of the image actually processed.
+ * <p>
+ * Pipelines and stages hold no state, so the same instance can be used from several threads.
+ */
+public class DetectionPipeline {
+
+    /**
+     * Parameters shared by the stages while processing one image
+     */
+    public static class Frame {
+        // Ratio between the processed image and the full resolution frame
+        public final double scale;
+        public final BackgroundStats background;
+        // Pixels added on each side of the image by the stages, to be subtracted from the contours
+        public int border;
+
+        public Frame(double scale, BackgroundStats background) {
+            this.scale = scale;
+            this.background = background;
+        }
+    }
+
+    /**
+     * A single preprocessing step. Stages may work in place, src and dst can be the same Mat.
+     */
+    public interface Stage {
+        DetectionStage getTimedStage();
+        void apply(Mat src, Mat dst, Frame frame);
+    }
+
+    private static final DetectionPipeline FAST = new DetectionPipeline(PipelinePreset.FAST.name(),
+            new GaussianBlur(5),
+            new AdaptiveThreshold(115, 4),
+            new Border(3),
+            new Canny(50, 150),
+            new Dilate(1, 23, true));
+
+    private static final DetectionPipeline ACCURATE = new DetectionPipeline(PipelinePreset.ACCURATE.name(),
+            new BilateralFilter(11, 11, 11),
+            new AdaptiveThreshold(115, 4),
+            new Border(3),
+            new Canny(50, 150),
+            new Dilate(1, 23, false));
+
+    private final String name;
+    private final Stage[] stages;
+
+    public DetectionPipeline(String name, Stage... stages) {
+        this.name = name;
+        this.stages = stages;
+    }
+
+    public static DetectionPipeline forPreset(PipelinePreset preset) {
+        return preset == PipelinePreset.FAST ? FAST : ACCURATE;
+    }
+
+    /**
+     * @return FAST on low RAM or low core count devices, ACCURATE otherwise
+     */
+    public static PipelinePreset getDevicePreset(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        boolean lowRam = activityManager != null
+                && (activityManager.getMemoryClass() <= 64
+                || (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && activityManager.isLowRamDevice()));
+        return lowRam || Runtime.getRuntime().availableProcessors() <= 2 ? PipelinePreset.FAST : PipelinePreset.ACCURATE;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return pixels the stages add on each side of an image downscaled by the given factor, so
+     * that the edge image can be allocated at its final size
+     */
+    public int getBorder(double scale) {
+        Frame frame = new Frame(scale, null);
+        int border = 0;
+        for (Stage stage : stages) {
+            if (stage instanceof Border) {
+                border += ((Border) stage).getBorder(frame);
+            }
+        }
+        return border;
+    }
+
+    /**
+     * @param src     CV_8UC1 image, left untouched
+     * @param dst     receives the edge image
+     * @param frame   parameters of the image, its border is updated by the stages
+     * @param metrics receives the duration of each stage, may be null
+     */
+    public void apply(Mat src, Mat dst, Frame frame, DetectionMetrics metrics) {
+        apply(src, dst, null, frame, metrics);
+    }
+
+    /**
+     * Same as {@link #apply(Mat, Mat, Frame, DetectionMetrics)}, with the stages that come before
+     * the border writing into scratch. With scratch of the size of src and dst of the size of
+     * the bordered image, no stage has to reallocate its output.
+     *
+     * @param scratch working image of the size of src, may be null
+     */
+    public void apply(Mat src, Mat dst, Mat scratch, Frame frame, DetectionMetrics metrics) {
+        int lastBorder = -1;
+        if (scratch != null) {
+            for (int i = 0; i < stages.length; i++) {
+                if (stages[i] instanceof Border) {
+                    lastBorder = i;
+                }
+            }
+        }
+        long time = metrics != null ? metrics.start() : 0;
+        Mat input = src;
+        for (int i = 0; i < stages.length; i++) {
+            Stage stage = stages[i];
+            Mat output = i < lastBorder ? scratch : dst;
+            stage.apply(input, output, frame);
+            input = output;
+            if (metrics != null) {
+                time = metrics.lap(stage.getTimedStage(), time);
+            }
+        }
+        if (input == src) {
+            src.copyTo(dst);
+        }
+    }
+
+    private static int scaled(double size, Frame frame) {
+        return Math.max(1, (int) Math.round(size * frame.scale));
+    }
+
+    private static int oddSize(double size) {
+        int rounded = Math.max(3, (int) Math.round(size));
+        return rounded % 2 == 0 ? rounded + 1 : rounded;
+    }
+
+    public static class BilateralFilter implements Stage {
+        private final int diameter;
+        private final double sigmaColor;
+        private final double sigmaSpace;
+
+        public BilateralFilter(int diameter, double sigmaColor, double sigmaSpace) {
+            this.diameter = diameter;
+            this.sigmaColor = sigmaColor;
+            this.sigmaSpace = sigmaSpace;
+        }
+
+        @Override
+        public DetectionStage getTimedStage() {
+            return DetectionStage.BILATERAL;
+        }
+
+        @Override
+        public void apply(Mat src, Mat dst, Frame frame) {
+            // The bilateral filter cannot work in place
+            Mat input = src == dst ? src.clone() : src;
+            Imgproc.bilateralFilter(input, dst, Math.max(3, scaled(diameter, frame)), sigmaColor,
+                    sigmaSpace * Math.min(1, frame.scale));
+            if (input != src) {
+                input.release();
+            }
+        }
+    }
+
+    public static class GaussianBlur implements Stage {
+        private final int size;
+
+        public GaussianBlur(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public DetectionStage getTimedStage() {
+            return DetectionStage.BLUR;
+        }
+
+        @Override
+        public void apply(Mat src, Mat dst, Frame frame) {
+            int kernel = oddSize(size * Math.min(1, frame.scale));
+            Imgproc.GaussianBlur(src, dst, new Size(kernel, kernel), 0);
+        }
+    }
+
+    public static class MedianBlur implements Stage {
+        private final int size;
+
+        public MedianBlur(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public DetectionStage getTimedStage() {
+            return DetectionStage.BLUR;
+        }
+
+        @Override
+        public void apply(Mat src, Mat dst, Frame frame) {
+            Imgproc.medianBlur(src, dst, oddSize(size * Math.min(1, frame.scale)));
+        }
+    }
+
+    public static class AdaptiveThreshold implements Stage {
+        private final int blockSize;
+        private final double c;
+
+        public AdaptiveThreshold(int blockSize, double c) {
+            this.blockSize = blockSize;
+            this.c = c;
+        }
+
+        @Override
+        public DetectionStage getTimedStage() {
+            return DetectionStage.THRESHOLD;
+        }
+
+        @Override
+        public void apply(Mat src, Mat dst, Frame frame) {
+            Imgproc.adaptiveThreshold(src, dst, 255, ADAPTIVE_THRESH_MEAN_C, THRESH_BINARY_INV,
+                    oddSize(blockSize * frame.scale), c);
+        }
+    }
+
+    /**
+     * Pads the image so that edges lying on the frame border still close the contours
+     */
+    public static class Border implements Stage {
+        private final int size;
+
+        public Border(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public DetectionStage getTimedStage() {
+            return DetectionStage.BORDER;
+        }
+
+        int getBorder(Frame frame) {
+            return scaled(size, frame);
+        }
+
+        @Override
+        public void apply(Mat src, Mat dst, Frame frame) {
+            int border = getBorder(frame);
+            Core.copyMakeBorder(src, dst, border, border, border, border, Core.BORDER_REFLECT_101);
+            frame.border += border;
+        }
+    }
+
+    public static class Canny implements Stage {
+        private final double threshold1;
+        private final double threshold2;
+
+        public Canny(double threshold1, double threshold2) {
+            this.threshold1 = threshold1;
+            this.threshold2 = threshold2;
+        }
+
+        @Override
+        public DetectionStage getTimedStage() {
+            return DetectionStage.CANNY;
+        }
+
+        @Override
+        public void apply(Mat src, Mat dst, Frame frame) {
+            Imgproc.Canny(src, dst, threshold1, threshold2);
+        }
+    }
+
+    /**
+     * Dilates the edges with a 3x3 square, more times on light backgrounds. With singleKernel set
+     * the iterations are replaced by one pass of the equivalent (2n+1)x(2n+1) square.
+     */
+    public static class Dilate implements Stage {
+        private final int darkIterations;
+        private final int lightIterations;
+        private final boolean singleKernel;
+
+        public Dilate(int darkIterations, int lightIterations, boolean singleKernel) {
+            this.darkIterations = darkIterations;
+            this.lightIterations = lightIterations;
+            this.singleKernel = singleKernel;
+        }
+
+        @Override
+        public DetectionStage getTimedStage() {
+            return DetectionStage.DILATE;
+        }
+
+        @Override
+        public void apply(Mat src, Mat dst, Frame frame) {
+            int iterations = frame.background != null && frame.background.isLight
+                    ? scaled(lightIterations, frame) : darkIterations;
+            if (singleKernel) {
+                Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_RECT,
+                        new Size(2 * iterations + 1, 2 * iterations + 1));
+                Imgproc.dilate(src, dst, kernel);
+                kernel.release();
+            }
+            else {
+                Mat kernel = new Mat();
+                Imgproc.dilate(src, dst, kernel, new Point(-1, -1), iterations);
+                kernel.release();
+            }
+        }
+    }
+}
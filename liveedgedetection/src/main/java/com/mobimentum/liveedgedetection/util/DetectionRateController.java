@@ -0,0 +1,220 @@
+package com.mobimentum.liveedgedetection.util;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+import android.util.Log;
+
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.DETECTION_CPU_BUDGET;
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.DETECTION_LOW_POWER_BUDGET;
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.DETECTION_MAX_INTERVAL;
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.DETECTION_MIN_INTERVAL;
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.INTERVAL_FRAME;
+
+/**
+ * Decides how often preview frames are handed to detection. The interval between frames is the
+ * measured detection time divided by the share of one CPU core detection may use, so that fast
+ * devices process more frames and slow ones stop backing up.
+ * <p>
+ * The budget shrinks when the battery is low or power saving is on, and when the device looks
+ * thermally throttled, i.e. full detections have become much slower than the fastest ones
+ * measured recently. The baseline follows the fastest average down at once and drifts back up
+ * slowly, so a scene that is simply more expensive to search ends up in the baseline instead of
+ * being taken as throttling for the rest of the session. The interval also grows while frames are being dropped.
+ */
+public class DetectionRateController {
+
+    private static final String TAG = DetectionRateController.class.getSimpleName();
+
+    // Smoothing factors of the moving averages
+    private static final double TIME_ALPHA = 0.2;
+    private static final double THERMAL_ALPHA = 0.05;
+    // Rate at which the baseline rises back towards slower full detections, per full detection
+    private static final double BASELINE_DECAY = 0.005;
+    private static final double DROP_ALPHA = 0.1;
+    // Full detections needed before the thermal baseline is trusted
+    private static final int THERMAL_WARMUP = 10;
+    // Slowdown of full detections over the baseline that is taken as thermal throttling
+    private static final double THERMAL_SLOWDOWN = 1.5;
+    private static final float THERMAL_BUDGET_FACTOR = 0.5f;
+    private static final double MAX_DROP_RATE = 0.1;
+    private static final int LOW_BATTERY_PERCENT = 15;
+    private static final long POWER_CHECK_INTERVAL = 30000;
+
+    private final Context context;
+
+    private float cpuBudget = DETECTION_CPU_BUDGET;
+    private float lowPowerBudget = DETECTION_LOW_POWER_BUDGET;
+    private long minInterval = DETECTION_MIN_INTERVAL;
+    private long maxInterval = DETECTION_MAX_INTERVAL;
+
+    private double avgDetectionMillis;
+    private double avgFullDetectionMillis;
+    private double baselineFullDetectionMillis;
+    private int fullDetections;
+    private double dropRate;
+    private boolean throttled;
+    private boolean lowPower;
+    private long intervalMillis = INTERVAL_FRAME;
+    private long lastFrameMillis;
+    private long lastPowerCheckMillis = -POWER_CHECK_INTERVAL;
+
+    public DetectionRateController(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * Called for every preview frame on the camera thread
+     *
+     * @param nowMillis current time, from {@link android.os.SystemClock#uptimeMillis()}
+     * @return true when the frame should be submitted to detection
+     */
+    public synchronized boolean shouldProcess(long nowMillis) {
+        if (nowMillis - lastPowerCheckMillis >= POWER_CHECK_INTERVAL) {
+            lastPowerCheckMillis = nowMillis;
+            updatePowerState();
+            updateInterval();
+        }
+        if (nowMillis - lastFrameMillis < intervalMillis) {
+            return false;
+        }
+        lastFrameMillis = nowMillis;
+        return true;
+    }
+
+    /**
+     * @param dropped true when the submitted frame replaced one still waiting for detection
+     */
+    public synchronized void onFrameSubmitted(boolean dropped) {
+        dropRate += DROP_ALPHA * ((dropped ? 1 : 0) - dropRate);
+        updateInterval();
+    }
+
+    /**
+     * Called on the processing thread after each frame
+     *
+     * @param detectionNanos time spent processing the frame
+     * @param fullDetection  false when the frame was only tracked or only searched in a region,
+     *                       which are much cheaper
+     */
+    public synchronized void onFrameProcessed(long detectionNanos, boolean fullDetection) {
+        double millis = detectionNanos / 1e6;
+        avgDetectionMillis = avgDetectionMillis == 0 ? millis : avgDetectionMillis + TIME_ALPHA * (millis - avgDetectionMillis);
+
+        // Tracked and region frames would skew the thermal estimate, which only looks at full detections
+        if (fullDetection) {
+            fullDetections++;
+            avgFullDetectionMillis = avgFullDetectionMillis == 0 ? millis
+                    : avgFullDetectionMillis + THERMAL_ALPHA * (millis - avgFullDetectionMillis);
+            if (fullDetections >= THERMAL_WARMUP) {
+                if (baselineFullDetectionMillis == 0 || avgFullDetectionMillis < baselineFullDetectionMillis) {
+                    baselineFullDetectionMillis = avgFullDetectionMillis;
+                }
+                else {
+                    baselineFullDetectionMillis += BASELINE_DECAY * (avgFullDetectionMillis - baselineFullDetectionMillis);
+                }
+                boolean wasThrottled = throttled;
+                throttled = avgFullDetectionMillis > baselineFullDetectionMillis * THERMAL_SLOWDOWN;
+                if (throttled != wasThrottled) {
+                    Log.i(TAG, "Thermal throttling " + (throttled ? "detected" : "ended"));
+                }
+            }
+        }
+        updateInterval();
+    }
+
+    private void updatePowerState() {
+        boolean powerSave = false;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+            powerSave = powerManager != null && powerManager.isPowerSaveMode();
+        }
+
+        boolean lowBattery = false;
+        // Sticky broadcast, no receiver is actually registered
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery != null) {
+            int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            boolean plugged = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+            lowBattery = !plugged && level >= 0 && scale > 0 && level * 100 / scale <= LOW_BATTERY_PERCENT;
+        }
+        lowPower = powerSave || lowBattery;
+    }
+
+    private void updateInterval() {
+        if (avgDetectionMillis == 0) {
+            return;
+        }
+        double target = avgDetectionMillis / getEffectiveBudget();
+        if (dropRate > MAX_DROP_RATE) {
+            target *= 1 + dropRate;
+        }
+        intervalMillis = Math.max(minInterval, Math.min(maxInterval, Math.round(target)));
+    }
+
+    /**
+     * @param cpuBudget share of one CPU core detection may use, between 0 and 1
+     */
+    public synchronized void setCpuBudget(float cpuBudget) {
+        this.cpuBudget = cpuBudget;
+        updateInterval();
+    }
+
+    /**
+     * @param lowPowerBudget share of one CPU core detection may use on low battery or in power
+     *                       saving mode
+     */
+    public synchronized void setLowPowerBudget(float lowPowerBudget) {
+        this.lowPowerBudget = lowPowerBudget;
+        updateInterval();
+    }
+
+    public synchronized void setIntervalBounds(long minInterval, long maxInterval) {
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+        updateInterval();
+    }
+
+    public synchronized float getCpuBudget() {
+        return cpuBudget;
+    }
+
+    /**
+     * @return budget currently applied, after the battery and thermal back-offs
+     */
+    public synchronized float getEffectiveBudget() {
+        float budget = lowPower ? Math.min(cpuBudget, lowPowerBudget) : cpuBudget;
+        return throttled ? budget * THERMAL_BUDGET_FACTOR : budget;
+    }
+
+    public synchronized long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    /**
+     * @return frames per second currently handed to detection, at most
+     */
+    public synchronized float getRate() {
+        return 1000f / intervalMillis;
+    }
+
+    public synchronized double getAverageDetectionMillis() {
+        return avgDetectionMillis;
+    }
+
+    public synchronized double getDropRate() {
+        return dropRate;
+    }
+
+    public synchronized boolean isThrottled() {
+        return throttled;
+    }
+
+    public synchronized boolean isLowPower() {
+        return lowPower;
+    }
+}
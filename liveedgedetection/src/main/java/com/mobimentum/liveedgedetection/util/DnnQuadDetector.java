@@ -0,0 +1,195 @@
+package com.mobimentum.liveedgedetection.util;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.mobimentum.liveedgedetection.enums.DetectionStage;
+import com.mobimentum.liveedgedetection.enums.DetectorType;
+import com.mobimentum.liveedgedetection.view.Quadrilateral;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.dnn.Dnn;
+import org.opencv.dnn.Net;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.CANDIDATE_MAX_ASPECT_RATIO;
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.CANDIDATE_MAX_COUNT;
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.CANDIDATE_MIN_AREA_RATIO;
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.DNN_INPUT_SIZE;
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.DNN_MODEL_ASSET;
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.DNN_THREADS;
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.DNN_TIME_BUDGET_MS;
+import static org.opencv.core.CvType.CV_8UC1;
+
+/**
+ * Detector running a document segmentation network, for the cases thresholding cannot handle
+ * such as white paper on a light desk. The network takes a square grayscale image scaled to
+ * [0, 1] and returns, for every pixel, the probability that it belongs to the document. The
+ * probability map is brought back to the size of the frame, thresholded, and its outline goes
+ * through the same candidate selection and scoring as the classic contours.
+ * <p>
+ * The network runs on the OpenCV CPU backend. Its thread count is set once, when the detector
+ * is created, through {@link Core#setNumThreads(int)}: that setting is process-wide, so it also
+ * applies to every other OpenCV call of the app, including the capture and the crops running
+ * concurrently, and it is not changed again per frame.
+ * <p>
+ * Frames on which the network takes longer than its budget give no result and are left to the
+ * classic detection, and after several of them in a row the network is skipped for a while.
+ * With a budget of 0 there is no limit, so the same frame always gives the same corners.
+ * <p>
+ * Instances must be used from a single thread.
+ */
+public class DnnQuadDetector {
+
+    private static final String TAG = DnnQuadDetector.class.getSimpleName();
+
+    private static final double MASK_THRESHOLD = 0.5;
+    // The outline of a mask is smooth, so a tighter approximation than for edges is enough
+    private static final double APPROX_EPSILON_RATIO = 0.04;
+    private static final int MAX_CONSECUTIVE_OVERRUNS = 3;
+    private static final int OVERRUN_COOLDOWN_FRAMES = 30;
+
+    private final Net net;
+    private final int inputSize;
+    private final long budgetNanos;
+    private final Size inputImageSize;
+    private final Size frameSize = new Size();
+
+    private int consecutiveOverruns;
+    private int cooldownFrames;
+    private long overruns;
+
+    /**
+     * @param net          segmentation network
+     * @param inputSize    side of the square input of the network
+     * @param threads      threads of OpenCV for the whole process from now on, 0 or less to keep
+     *                     the current setting
+     * @param budgetMillis time after which the output of the network is discarded, 0 for no limit
+     */
+    public DnnQuadDetector(Net net, int inputSize, int threads, long budgetMillis) {
+        this.net = net;
+        this.inputSize = inputSize;
+        if (threads > 0) {
+            Core.setNumThreads(threads);
+        }
+        this.budgetNanos = budgetMillis * 1000000L;
+        this.inputImageSize = new Size(inputSize, inputSize);
+        net.setPreferableBackend(Dnn.DNN_BACKEND_OPENCV);
+        net.setPreferableTarget(Dnn.DNN_TARGET_CPU);
+    }
+
+    /**
+     * Loads the network bundled as {@link com.mobimentum.liveedgedetection.constants.ScanConstants#DNN_MODEL_ASSET}
+     *
+     * @return the detector with the default settings, or null when the app ships no model
+     */
+    public static DnnQuadDetector fromAssets(Context context) {
+        try (InputStream inputStream = context.getAssets().open(DNN_MODEL_ASSET)) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[16384];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+            MatOfByte model = new MatOfByte(outputStream.toByteArray());
+            Net net = Dnn.readNetFromTensorflow(model);
+            model.release();
+            if (net.empty()) {
+                Log.w(TAG, "Unreadable model " + DNN_MODEL_ASSET);
+                return null;
+            }
+            return new DnnQuadDetector(net, DNN_INPUT_SIZE, DNN_THREADS, DNN_TIME_BUDGET_MS);
+        }
+        catch (IOException e) {
+            Log.i(TAG, "No model " + DNN_MODEL_ASSET + ", segmentation disabled");
+            return null;
+        }
+        catch (Exception e) {
+            Log.e(TAG, "Failed to load " + DNN_MODEL_ASSET, e);
+            return null;
+        }
+    }
+
+    /**
+     * @param luma    CV_8UC1 frame, preferably the downscaled detection image
+     * @param scorer  picks the most document-like outline of the mask
+     * @param metrics receives the duration of the network, may be null
+     * @return the quad in the coordinates of luma, or null when the network found no document,
+     * ran over its budget or is cooling down after repeated overruns
+     */
+    public Quadrilateral detect(Mat luma, QuadScorer scorer, DetectionMetrics metrics) {
+        if (cooldownFrames > 0) {
+            cooldownFrames--;
+            return null;
+        }
+        long start = System.nanoTime();
+        try (MatScope scope = new MatScope()) {
+            Mat input = scope.borrow(MatPool.PREVIEW, inputSize, inputSize, CV_8UC1);
+            Imgproc.resize(luma, input, inputImageSize, 0, 0, Imgproc.INTER_AREA);
+            Mat blob = scope.add(Dnn.blobFromImage(input, 1 / 255.0, inputImageSize, new Scalar(0), false, false));
+
+            net.setInput(blob);
+            Mat output = scope.add(net.forward());
+
+            long elapsed = System.nanoTime() - start;
+            if (metrics != null) {
+                metrics.record(DetectionStage.DNN, elapsed);
+            }
+            if (budgetNanos > 0 && elapsed > budgetNanos) {
+                overruns++;
+                if (++consecutiveOverruns >= MAX_CONSECUTIVE_OVERRUNS) {
+                    consecutiveOverruns = 0;
+                    cooldownFrames = OVERRUN_COOLDOWN_FRAMES;
+                }
+                return null;
+            }
+            consecutiveOverruns = 0;
+            if (output.total() != (long) inputSize * inputSize) {
+                Log.w(TAG, "Unexpected output size " + output.total());
+                return null;
+            }
+
+            Mat probability = scope.add(output.reshape(1, inputSize));
+            Mat mask = scope.borrow(MatPool.PREVIEW, luma.rows(), luma.cols(), CV_8UC1);
+            frameSize.width = luma.cols();
+            frameSize.height = luma.rows();
+            Mat resized = scope.mat();
+            Imgproc.resize(probability, resized, frameSize, 0, 0, Imgproc.INTER_LINEAR);
+            resized.convertTo(mask, CV_8UC1, 255);
+            Imgproc.threshold(mask, mask, 255 * MASK_THRESHOLD, 255, Imgproc.THRESH_BINARY);
+
+            List<ContourCandidates.Candidate> candidates = ContourCandidates.find(mask, CANDIDATE_MAX_COUNT,
+                    CANDIDATE_MIN_AREA_RATIO, CANDIDATE_MAX_ASPECT_RATIO);
+            for (ContourCandidates.Candidate candidate : candidates) {
+                scope.add(candidate.contour);
+            }
+            Quadrilateral quad = ContourCandidates.findBestQuadrilateral(candidates, APPROX_EPSILON_RATIO, scorer,
+                    (double) luma.rows() * luma.cols());
+            if (quad == null) {
+                return null;
+            }
+            return new Quadrilateral(quad.contour, quad.points, quad.confidence, quad.documentClass,
+                    DetectorType.DNN);
+        }
+    }
+
+    /**
+     * @return frames on which the network ran over its budget
+     */
+    public long getOverrunCount() {
+        return overruns;
+    }
+
+    public long getBudgetMillis() {
+        return budgetNanos / 1000000L;
+    }
+}
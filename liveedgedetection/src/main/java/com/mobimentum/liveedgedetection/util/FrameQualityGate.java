@@ -0,0 +1,173 @@
+package com.mobimentum.liveedgedetection.util;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.GATE_MAX_MOTION;
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.GATE_MIN_SHARPNESS;
+
+/**
+ * Cheap check run before the full detection, rejecting frames taken while the phone is moving
+ * too fast or that are too blurry for the edges to be found.
+ * <p>
+ * Motion is the mean absolute difference, in gray levels, between thumbnails of consecutive
+ * frames. Sharpness is the variance of the Laplacian of the frame. Both are measured on the
+ * downscaled detection image, so their values depend on its size.
+ * <p>
+ * Instances keep their working buffers between calls and must be used from a single thread,
+ * except for the getters.
+ */
+public class FrameQualityGate {
+
+    private static final int THUMBNAIL_LONG_SIDE = 48;
+
+    private final Mat thumbnail = new Mat();
+    private final Mat previousThumbnail = new Mat();
+    private final Mat difference = new Mat();
+    private final Mat laplacian = new Mat();
+    private final MatOfDouble mean = new MatOfDouble();
+    private final MatOfDouble stdDev = new MatOfDouble();
+    private final double[] valueBuffer = new double[1];
+    private final Size thumbnailSize = new Size();
+
+    private volatile boolean enabled = true;
+    private volatile double maxMotion = GATE_MAX_MOTION;
+    private volatile double minSharpness = GATE_MIN_SHARPNESS;
+
+    private volatile double lastMotion;
+    private volatile double lastSharpness;
+    private volatile long acceptedFrames;
+    private volatile long skippedForMotion;
+    private volatile long skippedForBlur;
+
+    /**
+     * Measures the motion since the previous frame. Must be called on every frame, including
+     * the ones that do not go through {@link #accept}, so that the motion is always measured
+     * between consecutive frames.
+     *
+     * @param luma CV_8UC1 image
+     */
+    public void measureMotion(Mat luma) {
+        if (!enabled) {
+            return;
+        }
+        double scale = (double) THUMBNAIL_LONG_SIDE / Math.max(luma.cols(), luma.rows());
+        thumbnailSize.width = Math.max(1, Math.round(luma.cols() * scale));
+        thumbnailSize.height = Math.max(1, Math.round(luma.rows() * scale));
+        Imgproc.resize(luma, thumbnail, thumbnailSize, 0, 0, Imgproc.INTER_AREA);
+
+        if (previousThumbnail.cols() == thumbnail.cols() && previousThumbnail.rows() == thumbnail.rows()) {
+            Core.absdiff(thumbnail, previousThumbnail, difference);
+            Core.meanStdDev(difference, mean, stdDev);
+            mean.get(0, 0, valueBuffer);
+            lastMotion = valueBuffer[0];
+        }
+        else {
+            lastMotion = 0;
+        }
+        thumbnail.copyTo(previousThumbnail);
+    }
+
+    /**
+     * @param luma CV_8UC1 image, the same passed to {@link #measureMotion} for this frame
+     * @return false when the detection should be skipped on this frame
+     */
+    public boolean accept(Mat luma) {
+        if (!enabled) {
+            return true;
+        }
+        if (lastMotion > maxMotion) {
+            skippedForMotion++;
+            return false;
+        }
+
+        Imgproc.Laplacian(luma, laplacian, CvType.CV_16S);
+        Core.meanStdDev(laplacian, mean, stdDev);
+        stdDev.get(0, 0, valueBuffer);
+        lastSharpness = valueBuffer[0] * valueBuffer[0];
+        if (lastSharpness < minSharpness) {
+            skippedForBlur++;
+            return false;
+        }
+        acceptedFrames++;
+        return true;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param maxMotion mean gray level difference between frames above which detection is skipped
+     */
+    public void setMaxMotion(double maxMotion) {
+        this.maxMotion = maxMotion;
+    }
+
+    public double getMaxMotion() {
+        return maxMotion;
+    }
+
+    /**
+     * @param minSharpness Laplacian variance below which detection is skipped
+     */
+    public void setMinSharpness(double minSharpness) {
+        this.minSharpness = minSharpness;
+    }
+
+    public double getMinSharpness() {
+        return minSharpness;
+    }
+
+    public double getLastMotion() {
+        return lastMotion;
+    }
+
+    /**
+     * @return true when the motion measured on the last frame is above the threshold, also for
+     * the frames that do not go through {@link #accept}
+     */
+    public boolean isMoving() {
+        return enabled && lastMotion > maxMotion;
+    }
+
+    /**
+     * @return sharpness of the last frame checked, not updated for frames rejected for motion
+     */
+    public double getLastSharpness() {
+        return lastSharpness;
+    }
+
+    public long getAcceptedFrames() {
+        return acceptedFrames;
+    }
+
+    public long getSkippedForMotion() {
+        return skippedForMotion;
+    }
+
+    public long getSkippedForBlur() {
+        return skippedForBlur;
+    }
+
+    public long getSkippedFrames() {
+        return skippedForMotion + skippedForBlur;
+    }
+
+    public void release() {
+        thumbnail.release();
+        previousThumbnail.release();
+        difference.release();
+        laplacian.release();
+        mean.release();
+        stdDev.release();
+    }
+}
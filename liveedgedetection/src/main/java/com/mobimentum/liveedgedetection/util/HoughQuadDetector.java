@@ -0,0 +1,242 @@
+package com.mobimentum.liveedgedetection.util;
+
+import com.mobimentum.liveedgedetection.enums.DetectorType;
+import com.mobimentum.liveedgedetection.view.Quadrilateral;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.utils.Converters;
+
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.HOUGH_MAX_LONG_SIDE;
+import static org.opencv.core.CvType.CV_8UC1;
+
+/**
+ * Fallback detector building a quadrilateral from straight segments, for documents whose edges
+ * are too faint or too broken to close a contour. Segments found by the probabilistic Hough
+ * transform are split into near horizontal and near vertical ones, each group is clustered into
+ * two sides, a line is fitted to every side and the four lines are intersected.
+ * <p>
+ * The cost of the transform grows with the edge pixels and cannot be interrupted, so edge maps
+ * longer than HOUGH_MAX_LONG_SIDE are downscaled before it, such as the full resolution ones of
+ * the capture, and the segments are brought back to the size of the input.
+ */
+public class HoughQuadDetector {
+
+    // Segments shorter than this fraction of the short side of the image are ignored
+    private static final double MIN_SEGMENT_RATIO = 0.15;
+    private static final double MAX_GAP_RATIO = 0.05;
+    // Opposite sides closer than this fraction of the image are taken as a single side
+    private static final double MIN_SIDE_DISTANCE_RATIO = 0.15;
+    // Corners may fall this fraction of the image outside of it, for documents cut by the frame
+    private static final double CORNER_MARGIN_RATIO = 0.05;
+    private static final int MAX_SEGMENTS = 200;
+    private static final int CLUSTER_ITERATIONS = 5;
+
+    private HoughQuadDetector() {
+    }
+
+    /**
+     * @param edges        CV_8UC1 edge image
+     * @param scorer       rates the quad found
+     * @param budgetMillis time after which the search is abandoned, checked between the steps
+     * @param pool         lends the downscaled edge map
+     * @return the quad with its confidence, or null when none is found in time or accepted
+     */
+    public static Quadrilateral detect(Mat edges, QuadScorer scorer, long budgetMillis, MatPool pool) {
+        long deadline = System.nanoTime() + budgetMillis * 1000000L;
+        int rows = edges.rows();
+        int cols = edges.cols();
+        double scale = Math.min(1, (double) HOUGH_MAX_LONG_SIDE / Math.max(rows, cols));
+
+        int[] segments;
+        try (MatScope scope = new MatScope()) {
+            Mat input = edges;
+            if (scale < 1) {
+                input = scope.borrow(pool, (int) Math.round(rows * scale), (int) Math.round(cols * scale), CV_8UC1);
+                Imgproc.resize(edges, input, input.size(), 0, 0, Imgproc.INTER_AREA);
+                // Averaging dims the thin edges, any trace of one is kept as a full edge
+                Imgproc.threshold(input, input, 0, 255, Imgproc.THRESH_BINARY);
+            }
+            double shortSide = Math.min(input.rows(), input.cols());
+            Mat lines = scope.mat();
+            Imgproc.HoughLinesP(input, lines, 1, Math.PI / 180, (int) Math.max(20, shortSide * MIN_SEGMENT_RATIO / 2),
+                    shortSide * MIN_SEGMENT_RATIO, shortSide * MAX_GAP_RATIO);
+            if (lines.rows() < 4 || System.nanoTime() > deadline) {
+                return null;
+            }
+            segments = Converters.Mat_to_array_int(lines);
+        }
+        if (scale < 1) {
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = (int) Math.round(segments[i] / scale);
+            }
+        }
+
+        int count = Math.min(segments.length / 4, MAX_SEGMENTS);
+        // Sides: 0 top, 1 bottom, 2 left, 3 right. Horizontal ones are y = a + b * x,
+        // vertical ones x = a + b * y.
+        boolean[] horizontal = new boolean[count];
+        int[] side = new int[count];
+        int horizontalCount = 0;
+        for (int i = 0; i < count; i++) {
+            int dx = Math.abs(segments[4 * i + 2] - segments[4 * i]);
+            int dy = Math.abs(segments[4 * i + 3] - segments[4 * i + 1]);
+            horizontal[i] = dx >= dy;
+            if (horizontal[i]) {
+                horizontalCount++;
+            }
+        }
+        if (horizontalCount < 2 || count - horizontalCount < 2) {
+            return null;
+        }
+
+        if (!clusterSides(segments, count, horizontal, true, side, rows)
+                || !clusterSides(segments, count, horizontal, false, side, cols)
+                || System.nanoTime() > deadline) {
+            return null;
+        }
+
+        double[][] sideLines = new double[4][];
+        double supportLength = 0;
+        for (int s = 0; s < 4; s++) {
+            sideLines[s] = fitLine(segments, count, side, s, s < 2);
+            if (sideLines[s] == null) {
+                return null;
+            }
+            supportLength += sideLines[s][2];
+        }
+
+        Point[] corners = {
+                intersect(sideLines[0], sideLines[2]),
+                intersect(sideLines[0], sideLines[3]),
+                intersect(sideLines[1], sideLines[3]),
+                intersect(sideLines[1], sideLines[2]) };
+        double marginX = cols * CORNER_MARGIN_RATIO;
+        double marginY = rows * CORNER_MARGIN_RATIO;
+        for (Point corner : corners) {
+            if (corner == null || corner.x < -marginX || corner.x > cols + marginX
+                    || corner.y < -marginY || corner.y > rows + marginY) {
+                return null;
+            }
+        }
+        if (System.nanoTime() > deadline) {
+            return null;
+        }
+
+        double perimeter = 0;
+        for (int i = 0; i < 4; i++) {
+            perimeter += Math.hypot(corners[i].x - corners[(i + 1) % 4].x, corners[i].y - corners[(i + 1) % 4].y);
+        }
+        // There is no contour: how much of the sides is covered by segments stands in for the
+        // straightness of its edges
+        double coverage = Math.min(1, supportLength / perimeter);
+        QuadScorer.Score score = scorer.score(corners, perimeter / Math.max(coverage, 1e-6), (double) rows * cols);
+        if (!scorer.isAccepted(score)) {
+            return null;
+        }
+        return new Quadrilateral(new MatOfPoint2f(corners), corners, score.confidence, score.documentClass,
+                DetectorType.HOUGH);
+    }
+
+    /**
+     * Splits the segments of one orientation into two sides with a 1D length weighted k-means
+     * on their position across the image
+     *
+     * @return false when the two sides are too close to be opposite sides of a document
+     */
+    private static boolean clusterSides(int[] segments, int count, boolean[] horizontal, boolean wantHorizontal,
+                                        int[] side, int extent) {
+        int firstSide = wantHorizontal ? 0 : 2;
+        double low = Double.MAX_VALUE, high = -Double.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            if (horizontal[i] == wantHorizontal) {
+                double position = position(segments, i, wantHorizontal);
+                low = Math.min(low, position);
+                high = Math.max(high, position);
+            }
+        }
+
+        for (int iteration = 0; iteration < CLUSTER_ITERATIONS; iteration++) {
+            double lowSum = 0, lowWeight = 0, highSum = 0, highWeight = 0;
+            for (int i = 0; i < count; i++) {
+                if (horizontal[i] != wantHorizontal) {
+                    continue;
+                }
+                double position = position(segments, i, wantHorizontal);
+                double weight = length(segments, i);
+                if (Math.abs(position - low) <= Math.abs(position - high)) {
+                    side[i] = firstSide;
+                    lowSum += weight * position;
+                    lowWeight += weight;
+                }
+                else {
+                    side[i] = firstSide + 1;
+                    highSum += weight * position;
+                    highWeight += weight;
+                }
+            }
+            if (lowWeight == 0 || highWeight == 0) {
+                return false;
+            }
+            low = lowSum / lowWeight;
+            high = highSum / highWeight;
+        }
+        return high - low >= extent * MIN_SIDE_DISTANCE_RATIO;
+    }
+
+    /**
+     * Fits a line to the endpoints of the segments of a side, weighted by segment length
+     *
+     * @return { a, b, total segment length }, or null when the side has no segments
+     */
+    private static double[] fitLine(int[] segments, int count, int[] side, int wantedSide, boolean horizontal) {
+        double sw = 0, su = 0, sv = 0, suu = 0, suv = 0, total = 0;
+        for (int i = 0; i < count; i++) {
+            if (side[i] != wantedSide) {
+                continue;
+            }
+            double weight = length(segments, i);
+            total += weight;
+            for (int end = 0; end < 2; end++) {
+                // u runs along the side, v across it
+                double u = horizontal ? segments[4 * i + 2 * end] : segments[4 * i + 2 * end + 1];
+                double v = horizontal ? segments[4 * i + 2 * end + 1] : segments[4 * i + 2 * end];
+                sw += weight;
+                su += weight * u;
+                sv += weight * v;
+                suu += weight * u * u;
+                suv += weight * u * v;
+            }
+        }
+        if (sw == 0) {
+            return null;
+        }
+        double denominator = sw * suu - su * su;
+        double b = Math.abs(denominator) < 1e-9 ? 0 : (sw * suv - su * sv) / denominator;
+        double a = (sv - b * su) / sw;
+        return new double[] { a, b, total };
+    }
+
+    /**
+     * Intersects y = a1 + b1 * x with x = a2 + b2 * y
+     */
+    private static Point intersect(double[] horizontalLine, double[] verticalLine) {
+        double denominator = 1 - horizontalLine[1] * verticalLine[1];
+        if (Math.abs(denominator) < 1e-9) {
+            return null;
+        }
+        double x = (verticalLine[0] + verticalLine[1] * horizontalLine[0]) / denominator;
+        return new Point(x, horizontalLine[0] + horizontalLine[1] * x);
+    }
+
+    private static double position(int[] segments, int i, boolean horizontal) {
+        return horizontal ? (segments[4 * i + 1] + segments[4 * i + 3]) / 2.0
+                : (segments[4 * i] + segments[4 * i + 2]) / 2.0;
+    }
+
+    private static double length(int[] segments, int i) {
+        return Math.hypot(segments[4 * i + 2] - segments[4 * i], segments[4 * i + 3] - segments[4 * i + 1]);
+    }
+}
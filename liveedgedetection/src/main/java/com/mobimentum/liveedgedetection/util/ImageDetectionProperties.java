@@ -18,6 +18,8 @@ public class ImageDetectionProperties {
     private final Point bottomLeftPoint;
     private final Point bottomRightPoint;
     private final Point topRightPoint;
+    private final double[] corners = new double[QuadGeometry.LENGTH];
+    private final float[] vertices = new float[QuadGeometry.LENGTH];
 
     public ImageDetectionProperties(double previewWidth, double previewHeight, double resultWidth,
                                     double resultHeight, double previewArea, double resultArea,
@@ -73,7 +75,18 @@ public class ImageDetectionProperties {
     }
 
     public boolean isAngleNotCorrect(MatOfPoint2f approx) {
-        return getMaxCosine(approx) || isLeftEdgeDistorted() || isRightEdgeDistorted();
+        approx.get(0, 0, vertices);
+        QuadGeometry.set(corners, vertices);
+        return isAngleNotCorrect(corners);
+    }
+
+    public boolean isAngleNotCorrect(Point[] points) {
+        QuadGeometry.set(corners, points);
+        return isAngleNotCorrect(corners);
+    }
+
+    private boolean isAngleNotCorrect(double[] corners) {
+        return getMaxCosine(corners) || isLeftEdgeDistorted() || isRightEdgeDistorted();
     }
 
     private boolean isRightEdgeDistorted() {
@@ -84,10 +97,8 @@ public class ImageDetectionProperties {
         return Math.abs(topLeftPoint.y - bottomLeftPoint.y) > 100;
     }
 
-    private boolean getMaxCosine(MatOfPoint2f approx) {
-        double maxCosine = 0;
-        Point[] approxPoints = approx.toArray();
-        maxCosine = ScanUtils.getMaxCosine(maxCosine, approxPoints);
+    private boolean getMaxCosine(double[] corners) {
+        double maxCosine = QuadGeometry.maxCosine(corners);
         return maxCosine >= 0.085; //(smallest angle is below 87 deg)
     }
 
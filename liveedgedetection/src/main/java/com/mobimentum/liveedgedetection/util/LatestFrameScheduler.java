@@ -0,0 +1,125 @@
+package com.mobimentum.liveedgedetection.util;
+
+import android.os.Handler;
+
+/**
+ * Single-slot, latest-frame-wins scheduler for the processing thread. At most one frame is
+ * processed at a time: frames submitted while the thread is busy replace the pending one,
+ * and the replaced frames are dropped instead of queueing up behind it.
+ */
+public class LatestFrameScheduler<T> {
+
+    /**
+     * Callbacks invoked by the scheduler. {@link #onProcessFrame} runs on the handler thread,
+     * {@link #onDropFrame} on the thread that submitted or cleared the frame.
+     */
+    public interface FrameHandler<T> {
+        void onProcessFrame(T frame);
+        void onDropFrame(T frame);
+    }
+
+    private final Handler handler;
+    private final FrameHandler<T> frameHandler;
+    private final Object lock = new Object();
+
+    private T pendingFrame;
+    private boolean busy;
+    private long submittedFrames;
+    private long processedFrames;
+    private long droppedFrames;
+
+    public LatestFrameScheduler(Handler handler, FrameHandler<T> frameHandler) {
+        this.handler = handler;
+        this.frameHandler = frameHandler;
+    }
+
+    private final Runnable processTask = new Runnable() {
+        @Override
+        public void run() {
+            T frame;
+            synchronized (lock) {
+                frame = pendingFrame;
+                pendingFrame = null;
+                if (frame == null) {
+                    busy = false;
+                    return;
+                }
+            }
+            frameHandler.onProcessFrame(frame);
+            synchronized (lock) {
+                processedFrames++;
+                if (pendingFrame != null) {
+                    handler.post(processTask);
+                }
+                else {
+                    busy = false;
+                }
+            }
+        }
+    };
+
+    /**
+     * Makes the given frame the next one to be processed, dropping the frame that was
+     * still waiting, if any.
+     *
+     * @return true when a waiting frame was dropped
+     */
+    public boolean submit(T frame) {
+        T dropped;
+        synchronized (lock) {
+            submittedFrames++;
+            dropped = pendingFrame;
+            pendingFrame = frame;
+            if (dropped != null) {
+                droppedFrames++;
+            }
+            if (!busy) {
+                busy = true;
+                handler.post(processTask);
+            }
+        }
+        if (dropped != null) {
+            frameHandler.onDropFrame(dropped);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Drops the pending frame. A frame that is already being processed is not interrupted.
+     */
+    public void clear() {
+        T dropped;
+        synchronized (lock) {
+            dropped = pendingFrame;
+            pendingFrame = null;
+        }
+        if (dropped != null) {
+            frameHandler.onDropFrame(dropped);
+        }
+    }
+
+    public boolean isBusy() {
+        synchronized (lock) {
+            return busy;
+        }
+    }
+
+    public long getSubmittedFrames() {
+        synchronized (lock) {
+            return submittedFrames;
+        }
+    }
+
+    public long getProcessedFrames() {
+        synchronized (lock) {
+            return processedFrames;
+        }
+    }
+
+    public long getDroppedFrames() {
+        synchronized (lock) {
+            return droppedFrames;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.mobimentum.liveedgedetection.util;
+
+import org.opencv.core.Mat;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.MAT_POOL_MAX_SIZE;
+
+/**
+ * Bounded pool of working Mats keyed by rows, cols and type, so that the buffers of the
+ * detection and of the crop are allocated once and then reused on every frame. Idle Mats are
+ * evicted least recently used first when the pool is full, and all of them when the frame size
+ * changes.
+ * <p>
+ * The live preview has its own pool, {@link #PREVIEW}, so that the full size buffers of a
+ * capture or a crop, in {@link #SHARED}, do not evict the ones of the preview frames and a new
+ * preview size does not drop the buffers of a capture in progress. Idle picture-sized buffers
+ * are not kept once the capture or the crop is over: {@link #SHARED} is cleared when they end.
+ * <p>
+ * Only the image buffers are pooled. findContours still allocates its contour list and
+ * hierarchy, HoughLinesP its segments, and every quad found gets its own MatOfPoint2f.
+ * <p>
+ * The pool is thread safe. A borrowed Mat belongs to the borrower until it is recycled.
+ */
+public class MatPool {
+
+    // Capture, crops and any other work on whole pictures
+    public static final MatPool SHARED = new MatPool(MAT_POOL_MAX_SIZE);
+    // Detection on the live preview frames
+    public static final MatPool PREVIEW = new MatPool(MAT_POOL_MAX_SIZE);
+
+    private final int maxSize;
+    // Idle Mats by key, least recently used key first
+    private final LinkedHashMap<Long, ArrayDeque<Mat>> idle = new LinkedHashMap<>(16, 0.75f, true);
+    private int idleCount;
+    private int frameRows;
+    private int frameCols;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxSize maximum number of idle Mats kept
+     */
+    public MatPool(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    private static long key(int rows, int cols, int type) {
+        return ((long) rows << 40) | ((long) cols << 16) | (type & 0xFFFF);
+    }
+
+    /**
+     * @return an idle Mat of the given size and type, or a new one. Its content is undefined.
+     */
+    public Mat acquire(int rows, int cols, int type) {
+        synchronized (this) {
+            ArrayDeque<Mat> mats = idle.get(key(rows, cols, type));
+            if (mats != null && !mats.isEmpty()) {
+                hits++;
+                idleCount--;
+                return mats.pop();
+            }
+            misses++;
+        }
+        return new Mat(rows, cols, type);
+    }
+
+    /**
+     * Gives a Mat back to the pool, under the size and type it has now. Mats that cannot be
+     * pooled are released.
+     */
+    public void recycle(Mat mat) {
+        if (mat == null) {
+            return;
+        }
+        if (mat.empty() || !mat.isContinuous() || mat.isSubmatrix()) {
+            mat.release();
+            return;
+        }
+        synchronized (this) {
+            long key = key(mat.rows(), mat.cols(), mat.type());
+            ArrayDeque<Mat> mats = idle.get(key);
+            if (mats == null) {
+                mats = new ArrayDeque<>();
+                idle.put(key, mats);
+            }
+            mats.push(mat);
+            idleCount++;
+            trim(maxSize);
+        }
+    }
+
+    /**
+     * Drops the idle Mats when the frame size differs from the previous one, since buffers of
+     * the old size will not be asked for again
+     */
+    public synchronized void onFrameSize(int rows, int cols) {
+        if (rows != frameRows || cols != frameCols) {
+            frameRows = rows;
+            frameCols = cols;
+            trim(0);
+        }
+    }
+
+    /**
+     * Releases all the idle Mats
+     */
+    public synchronized void clear() {
+        trim(0);
+    }
+
+    private void trim(int size) {
+        Iterator<Map.Entry<Long, ArrayDeque<Mat>>> iterator = idle.entrySet().iterator();
+        while (idleCount > size && iterator.hasNext()) {
+            ArrayDeque<Mat> mats = iterator.next().getValue();
+            while (idleCount > size && !mats.isEmpty()) {
+                mats.removeLast().release();
+                idleCount--;
+                evictions++;
+            }
+            if (mats.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized int getIdleCount() {
+        return idleCount;
+    }
+
+    /**
+     * @return native bytes held by the idle Mats
+     */
+    public synchronized long getIdleBytes() {
+        long bytes = 0;
+        for (ArrayDeque<Mat> mats : idle.values()) {
+            for (Mat mat : mats) {
+                bytes += mat.total() * mat.elemSize();
+            }
+        }
+        return bytes;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    public synchronized void resetStatistics() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+}
@@ -0,0 +1,187 @@
+package com.mobimentum.liveedgedetection.util;
+
+import org.opencv.core.Mat;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Owns the Mats created while working on one image and releases all of them at once, so that
+ * their native memory does not wait for the finalizer, also when a step fails or returns early.
+ * Meant for try-with-resources:
+ * <pre>
+ * try (MatScope scope = new MatScope()) {
+ *     Mat gray = scope.add(new Mat());
+ *     ...
+ *     return scope.keep(result);
+ * }
+ * </pre>
+ * A scope belongs to the thread that opened it and must not be shared. Only
+ * {@link #getLiveBytes()} reads it from other threads, under the lock of its list.
+ */
+public final class MatScope implements Closeable {
+
+    // Open scopes, only filled while leak tracking is enabled
+    private static final List<MatScope> openScopes = new ArrayList<>();
+    private static volatile boolean leakTracking;
+
+    // Guarded by itself, for getLiveBytes() only: the owner thread is the one writing it
+    private final ArrayList<Mat> mats = new ArrayList<>();
+    // Pool each Mat goes back to, null for the Mats that are released
+    private final ArrayList<MatPool> pools = new ArrayList<>();
+    private boolean closed;
+
+    public MatScope() {
+        if (leakTracking) {
+            synchronized (openScopes) {
+                openScopes.add(this);
+            }
+        }
+    }
+
+    /**
+     * @return the given Mat, to be released when the scope is closed
+     */
+    public <T extends Mat> T add(T mat) {
+        if (mat != null) {
+            synchronized (mats) {
+                mats.add(mat);
+                pools.add(null);
+            }
+        }
+        return mat;
+    }
+
+    /**
+     * @return a Mat borrowed from the pool, given back to it when the scope is closed
+     */
+    public Mat borrow(MatPool pool, int rows, int cols, int type) {
+        Mat mat = pool.acquire(rows, cols, type);
+        synchronized (mats) {
+            mats.add(mat);
+            pools.add(pool);
+        }
+        return mat;
+    }
+
+    /**
+     * @return a new empty Mat owned by the scope
+     */
+    public Mat mat() {
+        return add(new Mat());
+    }
+
+    /**
+     * @return a new Mat owned by the scope
+     */
+    public Mat mat(int rows, int cols, int type) {
+        return add(new Mat(rows, cols, type));
+    }
+
+    /**
+     * Takes a Mat out of the scope, for results that outlive it
+     *
+     * @return the given Mat, which the caller now has to release
+     */
+    public <T extends Mat> T keep(T mat) {
+        synchronized (mats) {
+            for (int i = mats.size() - 1; i >= 0; i--) {
+                if (mats.get(i) == mat) {
+                    mats.remove(i);
+                    pools.remove(i);
+                    break;
+                }
+            }
+        }
+        return mat;
+    }
+
+    /**
+     * Releases the Mats in reverse order of creation, so submats go before their parents, and
+     * gives the borrowed ones back to their pool
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        synchronized (mats) {
+            for (int i = mats.size() - 1; i >= 0; i--) {
+                MatPool pool = pools.get(i);
+                if (pool != null) {
+                    pool.recycle(mats.get(i));
+                }
+                else {
+                    mats.get(i).release();
+                }
+            }
+            mats.clear();
+            pools.clear();
+        }
+        if (leakTracking) {
+            synchronized (openScopes) {
+                openScopes.remove(this);
+            }
+        }
+    }
+
+    private long getBytes() {
+        long bytes = 0;
+        synchronized (mats) {
+            for (Mat mat : mats) {
+                if (!mat.empty()) {
+                    bytes += mat.total() * mat.elemSize();
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Enables the bookkeeping behind {@link #getLiveBytes()}. Meant for debug builds and tests:
+     * scopes opened while it is on are referenced until they are closed.
+     */
+    public static void setLeakTracking(boolean enabled) {
+        leakTracking = enabled;
+        if (!enabled) {
+            synchronized (openScopes) {
+                openScopes.clear();
+            }
+        }
+    }
+
+    public static boolean isLeakTracking() {
+        return leakTracking;
+    }
+
+    /**
+     * @return number of scopes opened since leak tracking was enabled and not closed yet
+     */
+    public static int getOpenScopeCount() {
+        synchronized (openScopes) {
+            return openScopes.size();
+        }
+    }
+
+    /**
+     * Only counts the Mats added to or borrowed by scopes opened while leak tracking is on and
+     * not closed yet. Mats outside of any scope, such as the idle ones of a {@link MatPool},
+     * the results kept out of a scope and the working buffers of long lived objects, are not
+     * counted. Scopes legitimately stay open between detections too, like the one owning the
+     * result published by the preview, so leaks show as growth over a baseline taken before
+     * the detection, not as a value above 0.
+     *
+     * @return native bytes currently held by the Mats of the tracked open scopes
+     */
+    public static long getLiveBytes() {
+        long bytes = 0;
+        synchronized (openScopes) {
+            for (MatScope scope : openScopes) {
+                bytes += scope.getBytes();
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,485 @@
+package com.mobimentum.liveedgedetection.util;
+
+import android.util.Log;
+
+import com.mobimentum.liveedgedetection.enums.DetectionStage;
+import com.mobimentum.liveedgedetection.enums.PipelinePreset;
+import com.mobimentum.liveedgedetection.view.Quadrilateral;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.CORNER_REFINE_RADIUS;
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.DETECTION_LONG_SIDE;
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.HOUGH_TIME_BUDGET_MS;
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.ROI_FULL_FRAME_INTERVAL;
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.ROI_MARGIN_RATIO;
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.TRACKING_REDETECT_INTERVAL;
+
+/**
+ * Multi-resolution quadrilateral detector for live preview frames. Candidate quads are searched
+ * on a copy of the frame whose long side is fixed, then only the four corners are refined on
+ * the full resolution frame, so that the detection cost does not depend on the preview size.
+ * <p>
+ * Once a quad is found its corners are tracked on the following frames, and the full detection
+ * only runs again when tracking is lost or every TRACKING_REDETECT_INTERVAL frames. Before
+ * running it, frames taken while moving or out of focus are rejected by a {@link FrameQualityGate}.
+ * <p>
+ * When the previous frame had a quad, the full detection only looks at the bounding box of that
+ * quad grown by ROI_MARGIN_RATIO, so its cost follows the size of the document rather than the
+ * one of the frame. The whole frame is searched again after a miss in the region and every
+ * ROI_FULL_FRAME_INTERVAL region searches, so that a better document elsewhere is not missed.
+ * <p>
+ * With {@link #setMaxDocuments(int)} above 1 every document of the frame is searched on each
+ * frame, without tracking, and all of them are returned by {@link #getLastDocuments()}.
+ * <p>
+ * Instances keep their working buffers between calls and must be used from a single thread,
+ * except for the setters documented as safe to call from any thread.
+ */
+public class QuadDetector {
+
+    private static final String TAG = QuadDetector.class.getSimpleName();
+
+    // The cost of the search grows with the area, so only a region covering about the whole frame
+    // saves nothing. With the margins a centered document can cover up to about 55% of the frame.
+    private static final double ROI_MAX_FRAME_FRACTION = 0.95;
+
+    private final Mat smallLuma = new Mat();
+    private final Size smallSize = new Size();
+    private final QuadTracker tracker = new QuadTracker();
+    private final FrameQualityGate qualityGate = new FrameQualityGate();
+    private final Point[] trackedCorners = { new Point(), new Point(), new Point(), new Point() };
+    // Corners of the quad of the previous frame on the working image, valid while hasLastQuad
+    private final Point[] lastCorners = { new Point(), new Point(), new Point(), new Point() };
+    private final Rect roi = new Rect();
+    private final DetectionMetrics metrics;
+    // Reused for every detection of the frame, see options()
+    private final DetectionOptions options = new DetectionOptions();
+    private int detectionLongSide = DETECTION_LONG_SIDE;
+    private volatile DetectionPipeline pipeline = DetectionPipeline.forPreset(PipelinePreset.ACCURATE);
+    private volatile QuadScorer scorer = QuadScorer.DEFAULT;
+    private volatile long houghBudgetMillis = HOUGH_TIME_BUDGET_MS;
+    private volatile DnnQuadDetector dnnDetector;
+    // Score of the last detected quad, carried over to the tracked ones
+    private Quadrilateral lastDetection;
+    private List<Quadrilateral> lastDocuments = Collections.emptyList();
+    private volatile int maxDocuments = 1;
+    private volatile boolean trackingEnabled = true;
+    // Set by the setters that drop the tracked quad, which is only touched by the detecting thread
+    private volatile boolean trackingResetPending;
+    private volatile boolean roiEnabled = true;
+    private boolean hasLastQuad;
+    private int roiDetections;
+    private boolean lastFrameRoi;
+    private int framesSinceDetection;
+    private boolean lastFrameTracked;
+    private boolean lastFrameSkipped;
+    private volatile boolean tracking;
+
+    public QuadDetector() {
+        this(new DetectionMetrics());
+    }
+
+    /**
+     * @param metrics receives the duration of each stage
+     */
+    public QuadDetector(DetectionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public DetectionMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param detectionLongSide long side in pixels of the image used to search candidates,
+     *                          0 to run the whole detection at full resolution
+     */
+    public void setDetectionLongSide(int detectionLongSide) {
+        this.detectionLongSide = detectionLongSide;
+    }
+
+    public int getDetectionLongSide() {
+        return detectionLongSide;
+    }
+
+    /**
+     * Changes the preprocessing used by the next detections. Safe to call from any thread.
+     */
+    public void setPipeline(DetectionPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    public DetectionPipeline getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * Changes the scoring used to pick the document among the candidate quads. Safe to call from
+     * any thread.
+     */
+    public void setScorer(QuadScorer scorer) {
+        this.scorer = scorer;
+    }
+
+    public QuadScorer getScorer() {
+        return scorer;
+    }
+
+    /**
+     * @param houghBudgetMillis time the line based fallback may take when no contour is found,
+     *                          0 to disable it
+     */
+    public void setHoughBudgetMillis(long houghBudgetMillis) {
+        this.houghBudgetMillis = houghBudgetMillis;
+    }
+
+    /**
+     * @param dnnDetector segmentation network tried before the classic detection, null to use
+     *                    the classic detection only
+     */
+    public void setDnnDetector(DnnQuadDetector dnnDetector) {
+        this.dnnDetector = dnnDetector;
+    }
+
+    public DnnQuadDetector getDnnDetector() {
+        return dnnDetector;
+    }
+
+    /**
+     * @param maxDocuments maximum number of documents searched on each frame. Above 1 the
+     *                     segmentation network and tracking are not used. Safe to call from
+     *                     any thread, applied from the next frame.
+     */
+    public void setMaxDocuments(int maxDocuments) {
+        this.maxDocuments = Math.max(1, maxDocuments);
+        if (maxDocuments > 1) {
+            tracking = false;
+            trackingResetPending = true;
+        }
+    }
+
+    public int getMaxDocuments() {
+        return maxDocuments;
+    }
+
+    /**
+     * @return the documents found on the last frame in frame coordinates, best scoring first.
+     * The first one is the quad returned by {@link #detect(Mat)}.
+     */
+    public List<Quadrilateral> getLastDocuments() {
+        return lastDocuments;
+    }
+
+    /**
+     * @param trackingEnabled false to run the full detection on every frame. Safe to call from
+     *                        any thread, applied from the next frame.
+     */
+    public void setTrackingEnabled(boolean trackingEnabled) {
+        this.trackingEnabled = trackingEnabled;
+        if (!trackingEnabled) {
+            tracking = false;
+            trackingResetPending = true;
+        }
+    }
+
+    /**
+     * @param roiEnabled false to always run the detection on the whole frame. Safe to call from
+     *                   any thread.
+     */
+    public void setRoiEnabled(boolean roiEnabled) {
+        this.roiEnabled = roiEnabled;
+    }
+
+    public boolean isRoiEnabled() {
+        return roiEnabled;
+    }
+
+    /**
+     * @return true when the detection of the last frame only searched the region around the
+     * previous quad
+     */
+    public boolean isLastFrameRoi() {
+        return lastFrameRoi;
+    }
+
+    /**
+     * @return true while the last quad found is being tracked, so that frames are cheap to
+     * process. Safe to call from any thread.
+     */
+    public boolean isTracking() {
+        return tracking;
+    }
+
+    /**
+     * @return true when the last frame was only tracked, without running the full detection
+     */
+    public boolean isLastFrameTracked() {
+        return lastFrameTracked;
+    }
+
+    /**
+     * @return true when the motion of the last frame is above the threshold of the quality gate.
+     * Tracked frames are not rejected for it, so their quad is not steady enough to be captured.
+     */
+    public boolean isLastFrameMoving() {
+        return qualityGate.isMoving();
+    }
+
+    /**
+     * @return true when the last frame was rejected by the quality gate, so that nothing was
+     * searched on it
+     */
+    public boolean isLastFrameSkipped() {
+        return lastFrameSkipped;
+    }
+
+    public FrameQualityGate getQualityGate() {
+        return qualityGate;
+    }
+
+    /**
+     * @param luma full resolution CV_8UC1 frame
+     * @return the largest quadrilateral in frame coordinates, or null
+     */
+    public Quadrilateral detect(Mat luma) {
+        if (trackingResetPending) {
+            trackingResetPending = false;
+            tracker.reset();
+            hasLastQuad = false;
+        }
+        lastDocuments = Collections.emptyList();
+        Quadrilateral quad = trackOrDetect(luma);
+        if (lastDocuments.isEmpty() && quad != null) {
+            lastDocuments = Collections.singletonList(quad);
+        }
+        tracking = tracker.isLocked();
+        metrics.setFrameRoi(lastFrameRoi);
+        return quad;
+    }
+
+    private Quadrilateral trackOrDetect(Mat luma) {
+        MatPool.PREVIEW.onFrameSize(luma.rows(), luma.cols());
+        long time = metrics.start();
+        double scale = 1;
+        Mat workLuma = luma;
+        int longSide = Math.max(luma.rows(), luma.cols());
+        if (detectionLongSide > 0 && longSide > detectionLongSide) {
+            scale = (double) detectionLongSide / longSide;
+            smallSize.width = Math.round(luma.cols() * scale);
+            smallSize.height = Math.round(luma.rows() * scale);
+            Imgproc.resize(luma, smallLuma, smallSize, 0, 0, Imgproc.INTER_AREA);
+            workLuma = smallLuma;
+            time = metrics.lap(DetectionStage.RESIZE, time);
+        }
+        lastFrameSkipped = false;
+        lastFrameRoi = false;
+        qualityGate.measureMotion(workLuma);
+        time = metrics.lap(DetectionStage.MOTION, time);
+
+        boolean singleDocument = maxDocuments <= 1;
+        if (singleDocument && trackingEnabled && tracker.isLocked() && framesSinceDetection < TRACKING_REDETECT_INTERVAL) {
+            boolean tracked = tracker.track(workLuma, trackedCorners);
+            time = metrics.lap(DetectionStage.TRACK, time);
+            if (tracked) {
+                framesSinceDetection++;
+                lastFrameTracked = true;
+                setLastCorners(trackedCorners);
+                return toFrameQuadrilateral(luma, workLuma, trackedCorners, lastDetection);
+            }
+        }
+
+        lastFrameTracked = false;
+        // The tracker keeps its lock, so it can take over again on the next frame
+        boolean accepted = qualityGate.accept(workLuma);
+        metrics.lap(DetectionStage.SHARPNESS, time);
+        if (!accepted) {
+            lastFrameSkipped = true;
+            return null;
+        }
+        // Only a detection that actually runs restarts the tracking interval
+        framesSinceDetection = 0;
+        if (!singleDocument) {
+            return detectDocuments(luma, workLuma, scale);
+        }
+        Quadrilateral coarse = null;
+        DnnQuadDetector dnn = dnnDetector;
+        if (dnn != null) {
+            coarse = dnn.detect(workLuma, scorer, metrics);
+        }
+        if (coarse == null) {
+            coarse = detectInRoi(workLuma, scale);
+        }
+        if (coarse == null) {
+            roiDetections = 0;
+            coarse = ScanUtils.detectLargestQuadrilateralFromLuma(workLuma, options(scale, houghBudgetMillis, 0));
+        }
+        if (coarse == null) {
+            tracker.reset();
+            hasLastQuad = false;
+            return null;
+        }
+        setLastCorners(coarse.points);
+        if (trackingEnabled) {
+            tracker.start(workLuma, coarse.points);
+        }
+        lastDetection = coarse;
+        if (workLuma == luma) {
+            return coarse;
+        }
+        coarse.contour.release();
+        return toFrameQuadrilateral(luma, workLuma, coarse.points, coarse);
+    }
+
+    private void setLastCorners(Point[] corners) {
+        for (int i = 0; i < lastCorners.length; i++) {
+            lastCorners[i].x = corners[i].x;
+            lastCorners[i].y = corners[i].y;
+        }
+        hasLastQuad = true;
+    }
+
+    /**
+     * Searches the region around the quad of the previous frame
+     *
+     * @return the quad in the coordinates of workLuma, or null when there is no region to search,
+     * it is time for a full frame search or nothing was found in the region
+     */
+    private Quadrilateral detectInRoi(Mat workLuma, double scale) {
+        if (!roiEnabled || !hasLastQuad || roiDetections >= ROI_FULL_FRAME_INTERVAL) {
+            return null;
+        }
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (Point corner : lastCorners) {
+            minX = Math.min(minX, corner.x);
+            minY = Math.min(minY, corner.y);
+            maxX = Math.max(maxX, corner.x);
+            maxY = Math.max(maxY, corner.y);
+        }
+        double marginX = (maxX - minX) * ROI_MARGIN_RATIO;
+        double marginY = (maxY - minY) * ROI_MARGIN_RATIO;
+        roi.x = Math.max(0, (int) Math.floor(minX - marginX));
+        roi.y = Math.max(0, (int) Math.floor(minY - marginY));
+        roi.width = Math.min(workLuma.cols(), (int) Math.ceil(maxX + marginX)) - roi.x;
+        roi.height = Math.min(workLuma.rows(), (int) Math.ceil(maxY + marginY)) - roi.y;
+        double frameArea = (double) workLuma.rows() * workLuma.cols();
+        // Nothing to save when the document fills the frame
+        if (roi.width <= 0 || roi.height <= 0 || roi.area() > ROI_MAX_FRAME_FRACTION * frameArea) {
+            return null;
+        }
+
+        long time = metrics.start();
+        Mat region = workLuma.submat(roi);
+        try {
+            // No line based fallback here, a miss goes to the full frame search which has it
+            Quadrilateral quad = ScanUtils.detectLargestQuadrilateralFromLuma(region, options(scale, 0, frameArea));
+            if (quad == null) {
+                return null;
+            }
+            Core.add(quad.contour, new Scalar(roi.x, roi.y), quad.contour);
+            for (Point point : quad.points) {
+                point.x += roi.x;
+                point.y += roi.y;
+            }
+            roiDetections++;
+            lastFrameRoi = true;
+            return quad;
+        }
+        finally {
+            region.release();
+            metrics.lap(DetectionStage.ROI, time);
+        }
+    }
+
+    /**
+     * @return the options of a detection on the working image with the current settings of
+     * the detector, borrowing from the pool of the preview
+     */
+    private DetectionOptions options(double scale, long houghBudgetMillis, double imageArea) {
+        return options.setScale(scale)
+                .setPipeline(pipeline)
+                .setScorer(scorer)
+                .setHoughBudgetMillis(houghBudgetMillis)
+                .setImageArea(imageArea)
+                .setPool(MatPool.PREVIEW)
+                .setMetrics(metrics);
+    }
+
+    /**
+     * Searches all the documents of the working image and maps them to the frame
+     *
+     * @return the best scoring document, or null
+     */
+    private Quadrilateral detectDocuments(Mat luma, Mat workLuma, double scale) {
+        List<Quadrilateral> found = ScanUtils.detectQuadrilateralsFromLuma(workLuma,
+                options(scale, 0, 0).setMaxCount(maxDocuments));
+        List<Quadrilateral> documents = new ArrayList<>(found.size());
+        for (Quadrilateral quad : found) {
+            if (workLuma == luma) {
+                documents.add(quad);
+            }
+            else {
+                quad.contour.release();
+                documents.add(toFrameQuadrilateral(luma, workLuma, quad.points, quad));
+            }
+        }
+        lastDocuments = documents;
+        return documents.isEmpty() ? null : documents.get(0);
+    }
+
+    /**
+     * Maps corners found on the working image back to the full resolution frame, refining them
+     * there when the working image was downscaled
+     */
+    private Quadrilateral toFrameQuadrilateral(Mat luma, Mat workLuma, Point[] workCorners, Quadrilateral detection) {
+        double scaleX = (double) luma.cols() / workLuma.cols();
+        double scaleY = (double) luma.rows() / workLuma.rows();
+        Point[] corners = new Point[workCorners.length];
+        for (int i = 0; i < corners.length; i++) {
+            corners[i] = new Point(workCorners[i].x * scaleX, workCorners[i].y * scaleY);
+        }
+
+        if (workLuma != luma) {
+            // A working pixel covers scaleX full resolution pixels
+            int radius = Math.max(CORNER_REFINE_RADIUS, (int) Math.ceil(2 * scaleX));
+            long time = metrics.start();
+            try {
+                ScanUtils.refineCorners(luma, corners, radius);
+                metrics.lap(DetectionStage.REFINE, time);
+            }
+            catch (Exception e) {
+                Log.w(TAG, "Corner refinement failed, keeping coarse corners", e);
+            }
+        }
+
+        // Sorted corners run clockwise, so they also describe the contour
+        return new Quadrilateral(new MatOfPoint2f(corners), corners, detection.confidence, detection.documentClass,
+                detection.detector);
+    }
+
+    /**
+     * Frees the working buffers and forgets the tracked quad. The detector stays usable, its
+     * buffers are allocated again by the next frame.
+     */
+    public void release() {
+        tracker.reset();
+        tracking = false;
+        hasLastQuad = false;
+        lastDetection = null;
+        lastDocuments = Collections.emptyList();
+        smallLuma.release();
+        tracker.release();
+        qualityGate.release();
+    }
+}
@@ -0,0 +1,219 @@
+package com.mobimentum.liveedgedetection.util;
+
+import org.opencv.core.Point;
+
+/**
+ * Geometry of quadrilaterals stored as { x0, y0, x1, y1, x2, y2, x3, y3 }. Nothing here
+ * allocates, logs or calls native code, so the methods can run on every candidate of every
+ * frame and in plain JVM tests.
+ */
+public final class QuadGeometry {
+
+    public static final int LENGTH = 8;
+
+    private QuadGeometry() {
+    }
+
+    /**
+     * Copies the first four points into corners
+     */
+    public static void set(double[] corners, Point[] points) {
+        for (int i = 0; i < 4; i++) {
+            corners[2 * i] = points[i].x;
+            corners[2 * i + 1] = points[i].y;
+        }
+    }
+
+    /**
+     * Copies the { x, y } pairs of a CV_32FC2 buffer into corners
+     */
+    public static void set(double[] corners, float[] points) {
+        for (int i = 0; i < LENGTH; i++) {
+            corners[i] = points[i];
+        }
+    }
+
+    /**
+     * Writes the corners into the four given points
+     */
+    public static void get(double[] corners, Point[] points) {
+        for (int i = 0; i < 4; i++) {
+            points[i].x = corners[2 * i];
+            points[i].y = corners[2 * i + 1];
+        }
+    }
+
+    /**
+     * @return the corners as four new points
+     */
+    public static Point[] toPoints(double[] corners) {
+        Point[] points = new Point[4];
+        for (int i = 0; i < 4; i++) {
+            points[i] = new Point(corners[2 * i], corners[2 * i + 1]);
+        }
+        return points;
+    }
+
+    /**
+     * Orders the corners top-left, top-right, bottom-right, bottom-left: top-left has the
+     * smallest x + y, bottom-right the largest, top-right the smallest y - x and bottom-left the
+     * largest. On ties the first corner wins.
+     *
+     * @param src corners in any order
+     * @param dst receives the sorted corners, must not be src
+     */
+    public static void sort(double[] src, double[] dst) {
+        int topLeft = 0, bottomRight = 0, topRight = 0, bottomLeft = 0;
+        for (int i = 1; i < 4; i++) {
+            double sum = src[2 * i] + src[2 * i + 1];
+            double difference = src[2 * i + 1] - src[2 * i];
+            if (sum < src[2 * topLeft] + src[2 * topLeft + 1]) {
+                topLeft = i;
+            }
+            if (sum > src[2 * bottomRight] + src[2 * bottomRight + 1]) {
+                bottomRight = i;
+            }
+            if (difference < src[2 * topRight + 1] - src[2 * topRight]) {
+                topRight = i;
+            }
+            if (difference > src[2 * bottomLeft + 1] - src[2 * bottomLeft]) {
+                bottomLeft = i;
+            }
+        }
+        copyCorner(src, topLeft, dst, 0);
+        copyCorner(src, topRight, dst, 1);
+        copyCorner(src, bottomRight, dst, 2);
+        copyCorner(src, bottomLeft, dst, 3);
+    }
+
+    private static void copyCorner(double[] src, int from, double[] dst, int to) {
+        dst[2 * to] = src[2 * from];
+        dst[2 * to + 1] = src[2 * from + 1];
+    }
+
+    /**
+     * @return cosine of the angle at the given corner, between the edges to its two neighbours
+     */
+    public static double cosine(double[] corners, int corner) {
+        int previous = (corner + 3) % 4;
+        int next = (corner + 1) % 4;
+        double dx1 = corners[2 * next] - corners[2 * corner];
+        double dy1 = corners[2 * next + 1] - corners[2 * corner + 1];
+        double dx2 = corners[2 * previous] - corners[2 * corner];
+        double dy2 = corners[2 * previous + 1] - corners[2 * corner + 1];
+        return (dx1 * dx2 + dy1 * dy2) / Math.sqrt((dx1 * dx1 + dy1 * dy1) * (dx2 * dx2 + dy2 * dy2) + 1e-10);
+    }
+
+    /**
+     * @return largest absolute cosine among the angles at corners 1, 2 and 3. As in the OpenCV
+     * squares sample the first corner is left out: with three right angles the fourth is too.
+     */
+    public static double maxCosine(double[] corners) {
+        double maxCosine = 0;
+        for (int i = 1; i < 4; i++) {
+            maxCosine = Math.max(maxCosine, Math.abs(cosine(corners, i)));
+        }
+        return maxCosine;
+    }
+
+    /**
+     * @return length of the edge from the given corner to the next one
+     */
+    public static double edgeLength(double[] corners, int corner) {
+        int next = (corner + 1) % 4;
+        return Math.hypot(corners[2 * next] - corners[2 * corner], corners[2 * next + 1] - corners[2 * corner + 1]);
+    }
+
+    public static double perimeter(double[] corners) {
+        double perimeter = 0;
+        for (int i = 0; i < 4; i++) {
+            perimeter += edgeLength(corners, i);
+        }
+        return perimeter;
+    }
+
+    /**
+     * @return area enclosed by the corners, whatever their orientation
+     */
+    public static double area(double[] corners) {
+        double sum = 0;
+        for (int i = 0; i < 4; i++) {
+            int next = (i + 1) % 4;
+            sum += corners[2 * i] * corners[2 * next + 1] - corners[2 * next] * corners[2 * i + 1];
+        }
+        return Math.abs(sum) / 2;
+    }
+
+    /**
+     * @return true when all the corners turn the same way, with no three of them aligned
+     */
+    public static boolean isConvex(double[] corners) {
+        int sign = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = (i + 1) % 4;
+            int c = (i + 2) % 4;
+            double cross = (corners[2 * b] - corners[2 * i]) * (corners[2 * c + 1] - corners[2 * b + 1])
+                    - (corners[2 * b + 1] - corners[2 * i + 1]) * (corners[2 * c] - corners[2 * b]);
+            int crossSign = cross > 0 ? 1 : (cross < 0 ? -1 : 0);
+            if (crossSign == 0 || (sign != 0 && crossSign != sign)) {
+                return false;
+            }
+            sign = crossSign;
+        }
+        return true;
+    }
+
+    /**
+     * Even-odd test, also valid for non convex quads
+     *
+     * @return true when the point lies inside the quad
+     */
+    public static boolean contains(double[] corners, double x, double y) {
+        boolean inside = false;
+        for (int i = 0, j = 3; i < 4; j = i++) {
+            double xi = corners[2 * i], yi = corners[2 * i + 1];
+            double xj = corners[2 * j], yj = corners[2 * j + 1];
+            if ((yi > y) != (yj > y) && x < (xj - xi) * (y - yi) / (yj - yi) + xi) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Tells whether two quads share some area: a corner of one lies inside the other, or an
+     * edge of one crosses an edge of the other
+     */
+    public static boolean overlaps(double[] a, double[] b) {
+        for (int i = 0; i < 4; i++) {
+            if (contains(b, a[2 * i], a[2 * i + 1]) || contains(a, b[2 * i], b[2 * i + 1])) {
+                return true;
+            }
+        }
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                if (edgesCross(a, i, b, j)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean edgesCross(double[] a, int i, double[] b, int j) {
+        int ni = (i + 1) % 4;
+        int nj = (j + 1) % 4;
+        double d1 = cross(b[2 * j], b[2 * j + 1], b[2 * nj], b[2 * nj + 1], a[2 * i], a[2 * i + 1]);
+        double d2 = cross(b[2 * j], b[2 * j + 1], b[2 * nj], b[2 * nj + 1], a[2 * ni], a[2 * ni + 1]);
+        double d3 = cross(a[2 * i], a[2 * i + 1], a[2 * ni], a[2 * ni + 1], b[2 * j], b[2 * j + 1]);
+        double d4 = cross(a[2 * i], a[2 * i + 1], a[2 * ni], a[2 * ni + 1], b[2 * nj], b[2 * nj + 1]);
+        return ((d1 > 0 && d2 < 0) || (d1 < 0 && d2 > 0)) && ((d3 > 0 && d4 < 0) || (d3 < 0 && d4 > 0));
+    }
+
+    /**
+     * @return z of the cross product between (x1 - x0, y1 - y0) and (x2 - x0, y2 - y0)
+     */
+    private static double cross(double x0, double y0, double x1, double y1, double x2, double y2) {
+        return (x1 - x0) * (y2 - y0) - (y1 - y0) * (x2 - x0);
+    }
+}
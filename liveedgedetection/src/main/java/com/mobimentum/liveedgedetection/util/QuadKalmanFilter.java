@@ -0,0 +1,246 @@
+package com.mobimentum.liveedgedetection.util;
+
+import com.mobimentum.liveedgedetection.view.Quadrilateral;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.video.KalmanFilter;
+
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.KALMAN_MAX_MISSES;
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.KALMAN_MAX_PREDICTION_MS;
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.KALMAN_OUTLIER_GATE;
+
+/**
+ * Constant velocity Kalman filter over the four corners of the detected quadrilateral.
+ * <p>
+ * Detections are fed from the processing thread and smooth the corner state. A detection whose
+ * corners are too far from the prediction is treated as an outlier and ignored, as is a frame
+ * where nothing was detected: in both cases the state coasts on its prediction, and the lock is
+ * only lost after {@link com.mobimentum.liveedgedetection.constants.ScanConstants#KALMAN_MAX_MISSES}
+ * consecutive misses. The UI thread can extrapolate the state to any instant to render the quad
+ * at display rate.
+ */
+public class QuadKalmanFilter {
+
+    private static final int STATE_SIZE = 16;
+    private static final int MEASUREMENT_SIZE = 8;
+    // Variance rates of the random walk on positions (px^2/s) and on velocities (px^2/s^3)
+    private static final float POSITION_NOISE = 100f;
+    private static final float VELOCITY_NOISE = 10000f;
+    // Variance of the corner position measured by the detector (px^2)
+    private static final float MEASUREMENT_NOISE = 9f;
+    private static final float INITIAL_VELOCITY_VARIANCE = 10000f;
+
+    private final KalmanFilter filter = new KalmanFilter(STATE_SIZE, MEASUREMENT_SIZE, 0, CvType.CV_32F);
+    private final Mat transition = Mat.eye(STATE_SIZE, STATE_SIZE, CvType.CV_32F);
+    private final Mat processNoise = Mat.zeros(STATE_SIZE, STATE_SIZE, CvType.CV_32F);
+    private final Mat measurement = new Mat(MEASUREMENT_SIZE, 1, CvType.CV_32F);
+    private final float[] stateBuffer = new float[STATE_SIZE];
+    private final float[] covarianceBuffer = new float[STATE_SIZE * STATE_SIZE];
+    private final float[] measurementBuffer = new float[MEASUREMENT_SIZE];
+    private final float[] valueBuffer = new float[1];
+
+    private boolean initialized;
+    // Last accepted measurement, whose score is reported with the filtered corners
+    private Quadrilateral lastMeasurement;
+    private int misses;
+    private long stateTimeNanos;
+    private final double[] state = new double[STATE_SIZE];
+
+    public QuadKalmanFilter() {
+        Mat measurementMatrix = Mat.zeros(MEASUREMENT_SIZE, STATE_SIZE, CvType.CV_32F);
+        Mat measurementNoise = Mat.zeros(MEASUREMENT_SIZE, MEASUREMENT_SIZE, CvType.CV_32F);
+        for (int i = 0; i < MEASUREMENT_SIZE; i++) {
+            valueBuffer[0] = 1f;
+            measurementMatrix.put(i, i, valueBuffer);
+            valueBuffer[0] = MEASUREMENT_NOISE;
+            measurementNoise.put(i, i, valueBuffer);
+        }
+        filter.set_measurementMatrix(measurementMatrix);
+        filter.set_measurementNoiseCov(measurementNoise);
+        measurementMatrix.release();
+        measurementNoise.release();
+    }
+
+    /**
+     * Feeds the detection made on a frame
+     *
+     * @param quad        detected quadrilateral, or null when the frame had none
+     * @param timeNanos   capture time of the frame, from {@link System#nanoTime()}
+     * @param frameWidth  width of the frame
+     * @param frameHeight height of the frame
+     * @return the filtered quadrilateral, or null when the filter holds no lock
+     */
+    public synchronized Quadrilateral update(Quadrilateral quad, long timeNanos, int frameWidth, int frameHeight) {
+        if (!initialized) {
+            if (quad == null) {
+                return null;
+            }
+            initialize(quad, timeNanos);
+            return toQuadrilateral();
+        }
+
+        predict(timeNanos);
+        double gate = KALMAN_OUTLIER_GATE * Math.hypot(frameWidth, frameHeight);
+        if (quad != null && isWithinGate(quad.points, gate)) {
+            misses = 0;
+            lastMeasurement = quad;
+            for (int i = 0; i < 4; i++) {
+                measurementBuffer[2 * i] = (float) quad.points[i].x;
+                measurementBuffer[2 * i + 1] = (float) quad.points[i].y;
+            }
+            measurement.put(0, 0, measurementBuffer);
+            filter.correct(measurement).release();
+        }
+        else {
+            if (++misses > KALMAN_MAX_MISSES) {
+                reset();
+                // A new document may have replaced the tracked one
+                if (quad != null) {
+                    initialize(quad, timeNanos);
+                    return toQuadrilateral();
+                }
+                return null;
+            }
+            coast();
+        }
+
+        readState(timeNanos);
+        return toQuadrilateral();
+    }
+
+    /**
+     * Extrapolates the filtered corners to the given instant. Safe to call from any thread.
+     *
+     * @param timeNanos instant from {@link System#nanoTime()}
+     * @param corners   receives the four predicted corners
+     * @return false when the filter holds no lock
+     */
+    public synchronized boolean predict(long timeNanos, Point[] corners) {
+        if (!initialized) {
+            return false;
+        }
+        double dt = Math.min(timeNanos - stateTimeNanos, KALMAN_MAX_PREDICTION_MS * 1000000L) / 1e9;
+        dt = Math.max(0, dt);
+        for (int i = 0; i < 4; i++) {
+            corners[i].x = state[2 * i] + state[MEASUREMENT_SIZE + 2 * i] * dt;
+            corners[i].y = state[2 * i + 1] + state[MEASUREMENT_SIZE + 2 * i + 1] * dt;
+        }
+        return true;
+    }
+
+    public synchronized boolean isLocked() {
+        return initialized;
+    }
+
+    public synchronized void reset() {
+        initialized = false;
+        misses = 0;
+    }
+
+    /**
+     * Frees the native buffers. The filter holds no lock afterwards and cannot be updated again.
+     */
+    public synchronized void release() {
+        initialized = false;
+        transition.release();
+        processNoise.release();
+        measurement.release();
+    }
+
+    private void initialize(Quadrilateral quad, long timeNanos) {
+        Point[] points = quad.points;
+        lastMeasurement = quad;
+        for (int i = 0; i < 4; i++) {
+            stateBuffer[2 * i] = (float) points[i].x;
+            stateBuffer[2 * i + 1] = (float) points[i].y;
+            stateBuffer[MEASUREMENT_SIZE + 2 * i] = 0f;
+            stateBuffer[MEASUREMENT_SIZE + 2 * i + 1] = 0f;
+        }
+        Mat statePost = new Mat(STATE_SIZE, 1, CvType.CV_32F);
+        statePost.put(0, 0, stateBuffer);
+        filter.set_statePost(statePost);
+        statePost.release();
+
+        Mat errorCovPost = Mat.zeros(STATE_SIZE, STATE_SIZE, CvType.CV_32F);
+        for (int i = 0; i < STATE_SIZE; i++) {
+            valueBuffer[0] = i < MEASUREMENT_SIZE ? MEASUREMENT_NOISE : INITIAL_VELOCITY_VARIANCE;
+            errorCovPost.put(i, i, valueBuffer);
+        }
+        filter.set_errorCovPost(errorCovPost);
+        errorCovPost.release();
+
+        initialized = true;
+        misses = 0;
+        readState(timeNanos);
+    }
+
+    private void predict(long timeNanos) {
+        float dt = Math.max(0, (timeNanos - stateTimeNanos) / 1e9f);
+        for (int i = 0; i < MEASUREMENT_SIZE; i++) {
+            valueBuffer[0] = dt;
+            transition.put(i, MEASUREMENT_SIZE + i, valueBuffer);
+            valueBuffer[0] = POSITION_NOISE * dt;
+            processNoise.put(i, i, valueBuffer);
+            valueBuffer[0] = VELOCITY_NOISE * dt;
+            processNoise.put(MEASUREMENT_SIZE + i, MEASUREMENT_SIZE + i, valueBuffer);
+        }
+        filter.set_transitionMatrix(transition);
+        filter.set_processNoiseCov(processNoise);
+        filter.predict().release();
+    }
+
+    /**
+     * Accepts the prediction as the new state, as if no measurement had been made
+     */
+    private void coast() {
+        Mat statePre = filter.get_statePre();
+        Mat statePost = filter.get_statePost();
+        statePre.get(0, 0, stateBuffer);
+        statePost.put(0, 0, stateBuffer);
+        filter.set_statePost(statePost);
+        statePre.release();
+        statePost.release();
+
+        Mat errorCovPre = filter.get_errorCovPre();
+        Mat errorCovPost = filter.get_errorCovPost();
+        errorCovPre.get(0, 0, covarianceBuffer);
+        errorCovPost.put(0, 0, covarianceBuffer);
+        filter.set_errorCovPost(errorCovPost);
+        errorCovPre.release();
+        errorCovPost.release();
+    }
+
+    private boolean isWithinGate(Point[] points, double gate) {
+        Mat statePre = filter.get_statePre();
+        statePre.get(0, 0, stateBuffer);
+        statePre.release();
+        for (int i = 0; i < 4; i++) {
+            if (Math.hypot(points[i].x - stateBuffer[2 * i], points[i].y - stateBuffer[2 * i + 1]) > gate) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void readState(long timeNanos) {
+        Mat statePost = filter.get_statePost();
+        statePost.get(0, 0, stateBuffer);
+        statePost.release();
+        for (int i = 0; i < STATE_SIZE; i++) {
+            state[i] = stateBuffer[i];
+        }
+        stateTimeNanos = timeNanos;
+    }
+
+    private Quadrilateral toQuadrilateral() {
+        Point[] points = new Point[4];
+        for (int i = 0; i < 4; i++) {
+            points[i] = new Point(state[2 * i], state[2 * i + 1]);
+        }
+        return new Quadrilateral(new MatOfPoint2f(points), points, lastMeasurement.confidence,
+                lastMeasurement.documentClass, lastMeasurement.detector);
+    }
+}
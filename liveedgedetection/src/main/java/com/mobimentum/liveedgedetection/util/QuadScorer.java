@@ -0,0 +1,136 @@
+package com.mobimentum.liveedgedetection.util;
+
+import com.mobimentum.liveedgedetection.enums.DocumentClass;
+
+import org.opencv.core.Point;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.QUAD_MIN_CONFIDENCE;
+
+/**
+ * Rates how much a quadrilateral looks like one of the expected documents, combining the area
+ * it covers, its corner angles, how straight the contour along its edges is and how close its
+ * aspect ratio is to the one of a document class. Non convex quads are always rejected.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+public class QuadScorer {
+
+    private static final double AREA_WEIGHT = 0.2;
+    private static final double ANGLE_WEIGHT = 0.3;
+    private static final double STRAIGHTNESS_WEIGHT = 0.25;
+    private static final double ASPECT_WEIGHT = 0.25;
+    // Quads covering this fraction of the image get the full area score
+    private static final double FULL_SCORE_AREA = 0.3;
+    // Quads covering more are most likely the table or the screen around the document
+    private static final double MAX_AREA = 0.95;
+    // Cosine of the worst corner angle at which the angle score drops to 0 (60 degrees)
+    private static final double MAX_COSINE = 0.5;
+    // Relative aspect ratio error at which the aspect score drops to 1/e
+    private static final double ASPECT_TOLERANCE = 0.25;
+
+    public static final QuadScorer DEFAULT = new QuadScorer(EnumSet.allOf(DocumentClass.class), QUAD_MIN_CONFIDENCE);
+
+    private final Set<DocumentClass> documentClasses;
+    private final double minConfidence;
+
+    /**
+     * @param documentClasses shapes the documents are expected to have
+     * @param minConfidence   score below which a quad is not taken for a document
+     */
+    public QuadScorer(Set<DocumentClass> documentClasses, double minConfidence) {
+        this.documentClasses = documentClasses.isEmpty()
+                ? EnumSet.allOf(DocumentClass.class) : EnumSet.copyOf(documentClasses);
+        this.minConfidence = minConfidence;
+    }
+
+    public Set<DocumentClass> getDocumentClasses() {
+        return EnumSet.copyOf(documentClasses);
+    }
+
+    public double getMinConfidence() {
+        return minConfidence;
+    }
+
+    /**
+     * Outcome of the scoring of a quad
+     */
+    public static class Score {
+        public final double confidence;
+        public final DocumentClass documentClass;
+
+        Score(double confidence, DocumentClass documentClass) {
+            this.confidence = confidence;
+            this.documentClass = documentClass;
+        }
+    }
+
+    /**
+     * @param corners          the four corners in clockwise order
+     * @param contourPerimeter perimeter of the contour the quad approximates
+     * @param imageArea        area of the image the quad was found on
+     * @return the confidence, between 0 and 1, and the best matching document class
+     */
+    public Score score(Point[] corners, double contourPerimeter, double imageArea) {
+        double[] geometry = new double[QuadGeometry.LENGTH];
+        QuadGeometry.set(geometry, corners);
+        return score(geometry, contourPerimeter, imageArea);
+    }
+
+    /**
+     * @param corners          the four corners in clockwise order, as { x0, y0, ... x3, y3 }
+     * @param contourPerimeter perimeter of the contour the quad approximates
+     * @param imageArea        area of the image the quad was found on
+     * @return the confidence, between 0 and 1, and the best matching document class
+     */
+    public Score score(double[] corners, double contourPerimeter, double imageArea) {
+        if (!QuadGeometry.isConvex(corners)) {
+            return new Score(0, null);
+        }
+
+        double areaFraction = QuadGeometry.area(corners) / imageArea;
+        double areaScore = areaFraction > MAX_AREA ? 0 : Math.min(1, areaFraction / FULL_SCORE_AREA);
+
+        double maxCosine = QuadGeometry.maxCosine(corners);
+        double angleScore = Math.max(0, 1 - maxCosine / MAX_COSINE);
+
+        // A contour with straight edges is as long as the quad, ragged or curved ones are longer
+        double perimeter = QuadGeometry.perimeter(corners);
+        double straightnessScore = contourPerimeter > 0 ? Math.min(perimeter, contourPerimeter)
+                / Math.max(perimeter, contourPerimeter) : 0;
+
+        // Opposite sides are averaged to reduce the effect of perspective
+        double width = (QuadGeometry.edgeLength(corners, 0) + QuadGeometry.edgeLength(corners, 2)) / 2;
+        double height = (QuadGeometry.edgeLength(corners, 3) + QuadGeometry.edgeLength(corners, 1)) / 2;
+        double aspectRatio = Math.max(width, height) / Math.max(1e-6, Math.min(width, height));
+        double aspectScore = 0;
+        DocumentClass bestClass = null;
+        for (DocumentClass documentClass : documentClasses) {
+            double error = 0;
+            if (aspectRatio < documentClass.minAspectRatio) {
+                error = (documentClass.minAspectRatio - aspectRatio) / documentClass.minAspectRatio;
+            }
+            else if (aspectRatio > documentClass.maxAspectRatio) {
+                error = (aspectRatio - documentClass.maxAspectRatio) / documentClass.maxAspectRatio;
+            }
+            double classScore = Math.exp(-error / ASPECT_TOLERANCE);
+            if (classScore > aspectScore) {
+                aspectScore = classScore;
+                bestClass = documentClass;
+            }
+        }
+
+        double confidence = AREA_WEIGHT * areaScore + ANGLE_WEIGHT * angleScore
+                + STRAIGHTNESS_WEIGHT * straightnessScore + ASPECT_WEIGHT * aspectScore;
+        return new Score(confidence, bestClass);
+    }
+
+    /**
+     * @return true when the score is high enough for the quad to be taken for a document
+     */
+    public boolean isAccepted(Score score) {
+        return score.confidence >= minConfidence;
+    }
+}
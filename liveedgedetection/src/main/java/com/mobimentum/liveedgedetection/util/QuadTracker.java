@@ -0,0 +1,110 @@
+package com.mobimentum.liveedgedetection.util;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.opencv.video.Video;
+
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.TRACKING_MAX_AREA_CHANGE;
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.TRACKING_MAX_ERROR;
+
+/**
+ * Follows the four corners of a confirmed quadrilateral from frame to frame with pyramidal
+ * Lucas-Kanade optical flow. The lock is lost as soon as a corner cannot be tracked reliably
+ * or the tracked corners stop describing a plausible quadrilateral.
+ * <p>
+ * Instances keep their working buffers between calls and must be used from a single thread.
+ */
+public class QuadTracker {
+
+    private static final int PYRAMID_LEVELS = 3;
+
+    private final Mat previousFrame = new Mat();
+    private final MatOfPoint2f previousCorners = new MatOfPoint2f();
+    private final MatOfPoint2f trackedCorners = new MatOfPoint2f();
+    private final MatOfByte status = new MatOfByte();
+    private final MatOfFloat error = new MatOfFloat();
+    private final Size windowSize = new Size(21, 21);
+    private final float[] cornerBuffer = new float[8];
+    private final byte[] statusBuffer = new byte[4];
+    private final float[] errorBuffer = new float[4];
+    private final double[] geometry = new double[QuadGeometry.LENGTH];
+
+    private boolean locked;
+    private double previousArea;
+
+    /**
+     * Locks on the given corners
+     *
+     * @param frame   CV_8UC1 image the corners were detected on
+     * @param corners the four corners, in clockwise order
+     */
+    public void start(Mat frame, Point[] corners) {
+        frame.copyTo(previousFrame);
+        previousCorners.fromArray(corners);
+        QuadGeometry.set(geometry, corners);
+        previousArea = QuadGeometry.area(geometry);
+        locked = previousArea > 0;
+    }
+
+    /**
+     * Moves the locked corners onto the given frame
+     *
+     * @param frame   CV_8UC1 image of the same size as the one passed to {@link #start}
+     * @param corners receives the tracked corners
+     * @return false when tracking failed, in which case the lock is lost
+     */
+    public boolean track(Mat frame, Point[] corners) {
+        if (!locked || frame.cols() != previousFrame.cols() || frame.rows() != previousFrame.rows()) {
+            reset();
+            return false;
+        }
+
+        Video.calcOpticalFlowPyrLK(previousFrame, frame, previousCorners, trackedCorners, status, error,
+                windowSize, PYRAMID_LEVELS);
+        status.get(0, 0, statusBuffer);
+        error.get(0, 0, errorBuffer);
+        trackedCorners.get(0, 0, cornerBuffer);
+
+        for (int i = 0; i < 4; i++) {
+            if (statusBuffer[i] == 0 || errorBuffer[i] > TRACKING_MAX_ERROR) {
+                reset();
+                return false;
+            }
+            corners[i].x = cornerBuffer[2 * i];
+            corners[i].y = cornerBuffer[2 * i + 1];
+        }
+
+        QuadGeometry.set(geometry, cornerBuffer);
+        double trackedArea = QuadGeometry.area(geometry);
+        if (!QuadGeometry.isConvex(geometry) || trackedArea > previousArea * TRACKING_MAX_AREA_CHANGE
+                || trackedArea * TRACKING_MAX_AREA_CHANGE < previousArea) {
+            reset();
+            return false;
+        }
+
+        frame.copyTo(previousFrame);
+        trackedCorners.copyTo(previousCorners);
+        previousArea = trackedArea;
+        return true;
+    }
+
+    public boolean isLocked() {
+        return locked;
+    }
+
+    public void reset() {
+        locked = false;
+    }
+
+    public void release() {
+        previousFrame.release();
+        previousCorners.release();
+        trackedCorners.release();
+        status.release();
+        error.release();
+    }
+}
@@ -23,6 +23,8 @@ import android.view.Display;
 import android.view.Surface;
 
 import com.mobimentum.liveedgedetection.BuildConfig;
+import com.mobimentum.liveedgedetection.enums.DetectionStage;
+import com.mobimentum.liveedgedetection.view.BackgroundStats;
 import com.mobimentum.liveedgedetection.view.LimitedArea;
 import com.mobimentum.liveedgedetection.view.Quadrilateral;
 
@@ -30,11 +32,12 @@ import org.opencv.android.Utils;
 import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfDouble;
 import org.opencv.core.MatOfPoint2f;
 import org.opencv.core.Point;
 import org.opencv.core.Scalar;
 import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
 import org.opencv.imgproc.Imgproc;
 import org.opencv.utils.Converters;
 
@@ -46,26 +49,55 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.BACKGROUND_STRIP_RATIO;
 import static com.mobimentum.liveedgedetection.constants.ScanConstants.BACKGROUND_THRESHOLD;
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.CANDIDATE_MAX_ASPECT_RATIO;
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.CANDIDATE_MAX_COUNT;
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.CANDIDATE_MIN_AREA_RATIO;
 import static com.mobimentum.liveedgedetection.constants.ScanConstants.IMAGE_NAME;
 import static com.mobimentum.liveedgedetection.constants.ScanConstants.IMG_TYPE;
 import static com.mobimentum.liveedgedetection.constants.ScanConstants.PDF_TYPE;
 import static com.mobimentum.liveedgedetection.constants.ScanConstants.PHOTO_QUALITY;
 import static com.mobimentum.liveedgedetection.constants.ScanConstants.SCHEME;
 import static org.opencv.core.CvType.CV_8UC1;
-import static org.opencv.imgproc.Imgproc.ADAPTIVE_THRESH_MEAN_C;
-import static org.opencv.imgproc.Imgproc.THRESH_BINARY_INV;
 
 public class ScanUtils {
 
     private static final String TAG = ScanUtils.class.getSimpleName();
 
+    // Each crop in flight holds its own output, so only a few run at once
+    private static final int CROP_MAX_THREADS = 4;
+    private static final long CROP_KEEP_ALIVE_SECONDS = 10;
+    // Crops of the documents of a picture. Its daemon threads start on the first crop and stop
+    // once idle, so nothing outlives the crops.
+    private static final ThreadPoolExecutor CROP_EXECUTOR = createCropExecutor();
+
+    private static ThreadPoolExecutor createCropExecutor() {
+        int threads = Math.max(1, Math.min(CROP_MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, CROP_KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "crop");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     public static boolean compareFloats(double left, double right) {
         double epsilon = 0.00000001;
         return Math.abs(left - right) < epsilon;
@@ -289,54 +321,108 @@ public class ScanUtils {
         return angle;
     }
 
-    private static double getAvgCorner(Mat mat) {
-        Mat tmp = new Mat(mat.rows(), mat.cols(), CV_8UC1);
-        Imgproc.cvtColor(mat, tmp, Imgproc.COLOR_BGR2HSV, 4);
-        float k = 0.7f;
-        double[] previous = new double[3];
-        for (int i = 0; i < mat.width(); i++) {
-            double[] colors = mat.get(0, i);
-            if (i == 0) {
-                previous = colors;
-            }
-            else {
-                previous[1] = k * colors[1] + (1 - k) * previous[1];
+    /**
+     * Measures the brightness of the background from four strips along the borders of the image,
+     * with one native call per strip
+     *
+     * @param luma CV_8UC1 image, preferably the downscaled detection image
+     */
+    public static BackgroundStats estimateBackground(Mat luma) {
+        int rows = luma.rows();
+        int cols = luma.cols();
+        int strip = Math.max(1, (int) Math.round(Math.min(rows, cols) * BACKGROUND_STRIP_RATIO));
+        if (rows <= 2 * strip || cols <= 2 * strip) {
+            strip = 0;
+        }
+
+        double[] value = new double[1];
+        double count = 0, sum = 0, sumOfSquares = 0;
+        double minStripMean = Double.MAX_VALUE, maxStripMean = 0;
+        try (MatScope scope = new MatScope()) {
+            MatOfDouble mean = scope.add(new MatOfDouble());
+            MatOfDouble stdDev = scope.add(new MatOfDouble());
+            // Top and bottom span the whole width, left and right the rows in between
+            int[][] strips = strip == 0 ? new int[][] { { 0, rows, 0, cols } } : new int[][] {
+                    { 0, strip, 0, cols },
+                    { rows - strip, rows, 0, cols },
+                    { strip, rows - strip, 0, strip },
+                    { strip, rows - strip, cols - strip, cols } };
+            for (int[] bounds : strips) {
+                Mat region = scope.add(luma.submat(bounds[0], bounds[1], bounds[2], bounds[3]));
+                Core.meanStdDev(region, mean, stdDev);
+                mean.get(0, 0, value);
+                double stripMean = value[0];
+                stdDev.get(0, 0, value);
+                double n = (double) (bounds[1] - bounds[0]) * (bounds[3] - bounds[2]);
+                count += n;
+                sum += n * stripMean;
+                sumOfSquares += n * (value[0] * value[0] + stripMean * stripMean);
+                minStripMean = Math.min(minStripMean, stripMean);
+                maxStripMean = Math.max(maxStripMean, stripMean);
             }
         }
-        tmp.release();
 
-        return previous[1];
+        double average = sum / count;
+        double variance = Math.max(0, sumOfSquares / count - average * average);
+        return new BackgroundStats(average, Math.sqrt(variance), minStripMean, maxStripMean,
+                average >= BACKGROUND_THRESHOLD);
     }
 
     public static Quadrilateral detectLargestQuadrilateral(Mat mat) {
-        try {
-            Mat mGrayMat = new Mat(mat.rows(), mat.cols(), CV_8UC1);
-            Mat dst = new Mat(mat.rows(), mat.cols(), CV_8UC1);
+        try (MatScope scope = new MatScope()) {
+            Mat mGrayMat = scope.borrow(MatPool.SHARED, mat.rows(), mat.cols(), CV_8UC1);
             Imgproc.cvtColor(mat, mGrayMat, Imgproc.COLOR_BGR2GRAY, 4);
-            // Dilatazione per sfondo scuro
-            int iterations = 1;
-
-            double avgCorner = getAvgCorner(mat);
-            if (avgCorner >= BACKGROUND_THRESHOLD) {
-                // Dilatazione per sfondo chiaro
-                iterations = 23;
-            }
-
-            Imgproc.bilateralFilter(mGrayMat, dst, 11, 11, 11);
-            Imgproc.adaptiveThreshold(dst, dst, 255, ADAPTIVE_THRESH_MEAN_C, THRESH_BINARY_INV, 115, 4);
-            int border = 3;
-            Core.copyMakeBorder(dst, dst, border, border, border, border, Core.BORDER_REFLECT_101);
-            Imgproc.Canny(dst, dst, 50, 150);
-            Imgproc.dilate(dst, dst, new Mat(), new Point(-1, -1), iterations);
-
-            List<MatOfPoint> largestContour = findLargestContour(dst);
-            if (null != largestContour) {
-                Quadrilateral mLargestRect = findQuadrilateral(largestContour);
-                if (mLargestRect != null) {
-                    mGrayMat.release();
-                    dst.release();
-                    return mLargestRect;
-                }
+            return detectLargestQuadrilateralFromLuma(mGrayMat);
+        }
+        catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Detects the largest quadrilateral on a single channel image, such as the Y plane of an
+     * NV21 preview frame, without any color conversion, with the default options
+     *
+     * @param luma CV_8UC1 image
+     */
+    public static Quadrilateral detectLargestQuadrilateralFromLuma(Mat luma) {
+        return detectLargestQuadrilateralFromLuma(luma, new DetectionOptions());
+    }
+
+    /**
+     * Same as {@link #detectLargestQuadrilateralFromLuma(Mat)} with the given options
+     *
+     * @param luma CV_8UC1 image
+     * @return the quad in the coordinates of luma, or null. Its contour must be released by the
+     * caller.
+     */
+    public static Quadrilateral detectLargestQuadrilateralFromLuma(Mat luma, DetectionOptions options) {
+        DetectionMetrics metrics = options.getMetrics();
+        try (MatScope scope = new MatScope()) {
+            Mat dst = edges(luma, options, scope);
+            int border = (dst.rows() - luma.rows()) / 2;
+            long time = metrics != null ? metrics.start() : 0;
+
+            List<ContourCandidates.Candidate> candidates = ContourCandidates.find(dst, CANDIDATE_MAX_COUNT,
+                    CANDIDATE_MIN_AREA_RATIO, CANDIDATE_MAX_ASPECT_RATIO);
+            for (ContourCandidates.Candidate candidate : candidates) {
+                scope.add(candidate.contour);
+            }
+            time = lap(metrics, DetectionStage.FIND_CONTOURS, time);
+            Quadrilateral mLargestRect = ContourCandidates.findBestQuadrilateral(candidates, 0.09,
+                    options.getScorer(), getImageArea(dst, options));
+            time = lap(metrics, DetectionStage.APPROX_POLY, time);
+            if (mLargestRect == null && options.getHoughBudgetMillis() > 0) {
+                mLargestRect = HoughQuadDetector.detect(dst, options.getScorer(), options.getHoughBudgetMillis(),
+                        options.getPool());
+                lap(metrics, DetectionStage.HOUGH, time);
+            }
+            if (mLargestRect != null) {
+                // Released with the scope if the shift below fails
+                scope.add(mLargestRect.contour);
+                removeBorder(mLargestRect, border);
+                scope.keep(mLargestRect.contour);
+                return mLargestRect;
             }
             return null;
         }
@@ -345,83 +431,169 @@ public class ScanUtils {
         }
     }
 
-    static double getMaxCosine(double maxCosine, Point[] approxPoints) {
-        for (int i = 2; i < 5; i++) {
-            double cosine = Math.abs(angle(approxPoints[i % 4], approxPoints[i - 2], approxPoints[i - 1]));
-            Log.i(TAG, String.valueOf(cosine));
-            maxCosine = Math.max(cosine, maxCosine);
+    /**
+     * Detects every document on a color image, see {@link #detectQuadrilateralsFromLuma}
+     */
+    public static List<Quadrilateral> detectQuadrilaterals(Mat mat) {
+        try (MatScope scope = new MatScope()) {
+            Mat mGrayMat = scope.borrow(MatPool.SHARED, mat.rows(), mat.cols(), CV_8UC1);
+            Imgproc.cvtColor(mat, mGrayMat, Imgproc.COLOR_BGR2GRAY, 4);
+            return detectQuadrilateralsFromLuma(mGrayMat, new DetectionOptions());
+        }
+        catch (Exception e) {
+            return new ArrayList<>();
         }
-        return maxCosine;
     }
 
-    private static double angle(Point p1, Point p2, Point p0) {
-        double dx1 = p1.x - p0.x;
-        double dy1 = p1.y - p0.y;
-        double dx2 = p2.x - p0.x;
-        double dy2 = p2.y - p0.y;
-        return (dx1 * dx2 + dy1 * dy2) / Math.sqrt((dx1 * dx1 + dy1 * dy1) * (dx2 * dx2 + dy2 * dy2) + 1e-10);
+    /**
+     * Detects all the documents of the image, such as several receipts laid side by side. Every
+     * contour that makes an accepted quad is kept unless it overlaps a better scoring one, so a
+     * document and the table it lies on are not both returned. The line based fallback is not
+     * used.
+     *
+     * @param luma CV_8UC1 image
+     * @return at most {@link DetectionOptions#getMaxCount()} quads in the coordinates of luma,
+     * best scoring first. Their contours must be released by the caller.
+     */
+    public static List<Quadrilateral> detectQuadrilateralsFromLuma(Mat luma, DetectionOptions options) {
+        DetectionMetrics metrics = options.getMetrics();
+        int maxCount = options.getMaxCount();
+        try (MatScope scope = new MatScope()) {
+            Mat dst = edges(luma, options, scope);
+            int border = (dst.rows() - luma.rows()) / 2;
+            long time = metrics != null ? metrics.start() : 0;
+
+            // More candidates than documents, some of them will be rejected or overlapping
+            List<ContourCandidates.Candidate> candidates = ContourCandidates.find(dst,
+                    Math.max(CANDIDATE_MAX_COUNT, 2 * maxCount), CANDIDATE_MIN_AREA_RATIO, CANDIDATE_MAX_ASPECT_RATIO);
+            for (ContourCandidates.Candidate candidate : candidates) {
+                scope.add(candidate.contour);
+            }
+            time = lap(metrics, DetectionStage.FIND_CONTOURS, time);
+            List<Quadrilateral> quads = ContourCandidates.findQuadrilaterals(candidates, 0.09, options.getScorer(),
+                    getImageArea(dst, options), maxCount);
+            for (Quadrilateral quad : quads) {
+                scope.add(quad.contour);
+            }
+            lap(metrics, DetectionStage.APPROX_POLY, time);
+            for (Quadrilateral quad : quads) {
+                removeBorder(quad, border);
+            }
+            for (Quadrilateral quad : quads) {
+                scope.keep(quad.contour);
+            }
+            return quads;
+        }
+        catch (Exception e) {
+            return new ArrayList<>();
+        }
     }
 
-    private static Point[] sortPoints(Point[] src) {
-        ArrayList<Point> srcPoints = new ArrayList<>(Arrays.asList(src));
-        Point[] result = {null, null, null, null};
-
-        Comparator<Point> sumComparator = (lhs, rhs) -> Double.valueOf(lhs.y + lhs.x).compareTo(rhs.y + rhs.x);
-
-        Comparator<Point> diffComparator = (lhs, rhs) -> Double.compare(lhs.y - lhs.x, rhs.y - rhs.x);
-
-        // top-left corner = minimal sum
-        result[0] = Collections.min(srcPoints, sumComparator);
-        // bottom-right corner = maximal sum
-        result[2] = Collections.max(srcPoints, sumComparator);
-        // top-right corner = minimal difference
-        result[1] = Collections.min(srcPoints, diffComparator);
-        // bottom-left corner = maximal difference
-        result[3] = Collections.max(srcPoints, diffComparator);
-
-        return result;
+    private static double getImageArea(Mat dst, DetectionOptions options) {
+        return options.getImageArea() > 0 ? options.getImageArea() : (double) dst.rows() * dst.cols();
     }
 
-    private static List<MatOfPoint> findLargestContour(Mat inputMat) {
-        Mat mHierarchy = new Mat();
-        List<MatOfPoint> mContourList = new ArrayList<>();
-        //finding contours
-        Imgproc.findContours(inputMat, mContourList, mHierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
-
-        Mat mContoursMat = new Mat();
-        mContoursMat.create(inputMat.rows(), inputMat.cols(), CvType.CV_8U);
+    /**
+     * Runs the preprocessing pipeline on luma
+     *
+     * @return the edge image, owned by the scope. It is larger than luma by the border of the
+     * pipeline on every side.
+     */
+    private static Mat edges(Mat luma, DetectionOptions options, MatScope scope) {
+        double scale = options.getScale();
+        DetectionPipeline pipeline = options.getPipeline();
+        MatPool pool = options.getPool();
+        DetectionMetrics metrics = options.getMetrics();
+        long time = metrics != null ? metrics.start() : 0;
+        // Buffers of the final size, so the pipeline does not reallocate them on every frame
+        int expectedBorder = pipeline.getBorder(scale);
+        Mat dst = scope.borrow(pool, luma.rows() + 2 * expectedBorder, luma.cols() + 2 * expectedBorder, CV_8UC1);
+        Mat scratch = expectedBorder > 0 ? scope.borrow(pool, luma.rows(), luma.cols(), CV_8UC1) : null;
+        BackgroundStats background = estimateBackground(luma);
+        lap(metrics, DetectionStage.BACKGROUND, time);
+
+        DetectionPipeline.Frame frame = new DetectionPipeline.Frame(scale, background);
+        pipeline.apply(luma, dst, scratch, frame, metrics);
+        return dst;
+    }
 
-        if (mContourList != null) {
-            for (int i = 0; i < mContourList.size(); i++) {
-                Imgproc.drawContours(inputMat, mContourList, i, new Scalar(0, 0, 255), 3);
-//                Imgproc.drawContours(inputMat, mContourList, i, new Scalar(255, 0, 0), -1);
-            }
+    /**
+     * Moves a quad from the bordered edge image back to the coordinates of luma
+     */
+    private static void removeBorder(Quadrilateral quad, int border) {
+        if (border == 0) {
+            return;
         }
+        Core.subtract(quad.contour, new Scalar(border, border), quad.contour);
+        for (Point point : quad.points) {
+            point.x -= border;
+            point.y -= border;
+        }
+    }
+
+    private static long lap(DetectionMetrics metrics, DetectionStage stage, long time) {
+        return metrics != null ? metrics.lap(stage, time) : 0;
+    }
 
-        if (mContourList.size() != 0) {
-            Collections.sort(mContourList, (lhs, rhs) -> Double.compare(Imgproc.contourArea(rhs), Imgproc.contourArea(lhs)));
-            return mContourList;
+    /**
+     * Maps corners found on a landscape preview frame to the picture taken right after it and
+     * rotated to portrait by 90 degrees clockwise, as the overlay does. Preview and picture are
+     * assumed to frame the same scene, only their resolution differs.
+     *
+     * @param previewSize size of the preview frame the corners were found on
+     * @return the corners in picture coordinates, ordered top-left, top-right, bottom-right,
+     * bottom-left
+     */
+    public static Point[] previewToPicture(Point[] corners, Size previewSize, int pictureWidth, int pictureHeight) {
+        double scaleX = pictureWidth / previewSize.height;
+        double scaleY = pictureHeight / previewSize.width;
+        double[] rotated = new double[QuadGeometry.LENGTH];
+        for (int i = 0; i < 4; i++) {
+            rotated[2 * i] = (previewSize.height - corners[i].y) * scaleX;
+            rotated[2 * i + 1] = corners[i].x * scaleY;
         }
-        return null;
+        // The rotation moves the top-left corner to the top-right
+        double[] sorted = new double[QuadGeometry.LENGTH];
+        QuadGeometry.sort(rotated, sorted);
+        return QuadGeometry.toPoints(sorted);
     }
 
-    private static Quadrilateral findQuadrilateral(List<MatOfPoint> mContourList) {
-        for (MatOfPoint c : mContourList) {
-            MatOfPoint2f c2f = new MatOfPoint2f(c.toArray());
-            double peri = Imgproc.arcLength(c2f, true);
-            MatOfPoint2f approx = new MatOfPoint2f();
-            Imgproc.approxPolyDP(c2f, approx, 0.09 * peri, true);
-            Point[] points = approx.toArray();
-            // select biggest 4 angles polygon
-            if (approx.rows() == 4) {
-                Point[] foundPoints = sortPoints(points);
-                return new Quadrilateral(approx, foundPoints);
+    /**
+     * Moves each corner to the sub-pixel corner location found in a small window around it.
+     * Corners whose refined position leaves the window are kept where they were.
+     *
+     * @param luma         full resolution CV_8UC1 image
+     * @param corners      corners to refine, updated in place
+     * @param windowRadius half size of the search window in pixels
+     */
+    public static void refineCorners(Mat luma, Point[] corners, int windowRadius) {
+        try (MatScope scope = new MatScope()) {
+            MatOfPoint2f refined = scope.add(new MatOfPoint2f(corners));
+            Imgproc.cornerSubPix(luma, refined, new Size(windowRadius, windowRadius), new Size(-1, -1),
+                    new TermCriteria(TermCriteria.EPS + TermCriteria.COUNT, 20, 0.1));
+            Point[] refinedPoints = refined.toArray();
+            for (int i = 0; i < corners.length; i++) {
+                if (Math.abs(refinedPoints[i].x - corners[i].x) <= windowRadius
+                        && Math.abs(refinedPoints[i].y - corners[i].y) <= windowRadius) {
+                    corners[i] = refinedPoints[i];
+                }
             }
         }
-        return null;
     }
 
     public static Bitmap enhanceReceipt(Bitmap image, Point topLeft, Point topRight, Point bottomLeft, Point bottomRight) {
+        try (MatScope scope = new MatScope()) {
+            Mat inputMat = scope.borrow(MatPool.SHARED, image.getHeight(), image.getWidth(), CvType.CV_8UC4);
+            Utils.bitmapToMat(image, inputMat);
+            return warpReceipt(inputMat, topLeft, topRight, bottomLeft, bottomRight);
+        }
+    }
+
+    /**
+     * Crops and straightens a document of an RGBA image. The image is only read, so several
+     * crops may share it from different threads.
+     */
+    private static Bitmap warpReceipt(Mat inputMat, Point topLeft, Point topRight, Point bottomLeft, Point bottomRight) {
         int resultWidth = (int) (topRight.x - topLeft.x);
         int bottomWidth = (int) (bottomRight.x - bottomLeft.x);
         if (bottomWidth > resultWidth)
@@ -432,41 +604,84 @@ public class ScanUtils {
         if (bottomHeight > resultHeight)
             resultHeight = bottomHeight;
 
-        Mat inputMat = new Mat(image.getHeight(), image.getHeight(), CvType.CV_8UC1);
-        Utils.bitmapToMat(image, inputMat);
-        Mat outputMat = new Mat(resultWidth, resultHeight, CvType.CV_8UC1);
+        try (MatScope scope = new MatScope()) {
+            Mat outputMat = scope.borrow(MatPool.SHARED, resultHeight, resultWidth, CvType.CV_8UC4);
+
+            Mat startM = scope.add(Converters.vector_Point2f_to_Mat(new float[] {
+                    (float) topLeft.x, (float) topLeft.y,
+                    (float) topRight.x, (float) topRight.y,
+                    (float) bottomLeft.x, (float) bottomLeft.y,
+                    (float) bottomRight.x, (float) bottomRight.y }));
 
-        List<Point> source = new ArrayList<>();
-        source.add(topLeft);
-        source.add(topRight);
-        source.add(bottomLeft);
-        source.add(bottomRight);
-        Mat startM = Converters.vector_Point2f_to_Mat(source);
+            Mat endM = scope.add(Converters.vector_Point2f_to_Mat(new float[] {
+                    0, 0,
+                    resultWidth, 0,
+                    0, resultHeight,
+                    resultWidth, resultHeight }));
 
-        Point ocvPOut1 = new Point(0, 0);
-        Point ocvPOut2 = new Point(resultWidth, 0);
-        Point ocvPOut3 = new Point(0, resultHeight);
-        Point ocvPOut4 = new Point(resultWidth, resultHeight);
-        List<Point> dest = new ArrayList<>();
-        dest.add(ocvPOut1);
-        dest.add(ocvPOut2);
-        dest.add(ocvPOut3);
-        dest.add(ocvPOut4);
-        Mat endM = Converters.vector_Point2f_to_Mat(dest);
+            Mat perspectiveTransform = scope.add(Imgproc.getPerspectiveTransform(startM, endM));
 
-        Mat perspectiveTransform = Imgproc.getPerspectiveTransform(startM, endM);
+            Imgproc.warpPerspective(inputMat, outputMat, perspectiveTransform, new Size(resultWidth, resultHeight));
 
-        Imgproc.warpPerspective(inputMat, outputMat, perspectiveTransform, new Size(resultWidth, resultHeight));
+            Bitmap output = Bitmap.createBitmap(resultWidth, resultHeight, Bitmap.Config.ARGB_8888);
+            Utils.matToBitmap(outputMat, output);
+            return output;
+        }
+    }
 
-        Bitmap output = Bitmap.createBitmap(resultWidth, resultHeight, Bitmap.Config.ARGB_8888);
-        Utils.matToBitmap(outputMat, output);
-        return output;
+    /**
+     * Crops several documents out of the same image, in parallel on a small pool shared by all
+     * the calls. The image is converted once and all the crops read that single copy, so only
+     * the outputs are allocated per document. Blocks until all the crops are done, so it must
+     * not run on the UI thread: see {@link CropTask}.
+     *
+     * @param documents corners of each document, ordered top-left, top-right, bottom-right,
+     *                  bottom-left
+     * @return the cropped documents, in the order of documents
+     */
+    public static List<Bitmap> enhanceReceipts(Bitmap image, List<Point[]> documents)
+            throws InterruptedException, ExecutionException {
+        try (MatScope scope = new MatScope()) {
+            final Mat inputMat = scope.borrow(MatPool.SHARED, image.getHeight(), image.getWidth(), CvType.CV_8UC4);
+            Utils.bitmapToMat(image, inputMat);
+            List<Callable<Bitmap>> crops = new ArrayList<>(documents.size());
+            for (final Point[] corners : documents) {
+                crops.add(new Callable<Bitmap>() {
+                    @Override
+                    public Bitmap call() {
+                        return warpReceipt(inputMat, corners[0], corners[1], corners[3], corners[2]);
+                    }
+                });
+            }
+            List<Future<Bitmap>> results;
+            try {
+                results = CROP_EXECUTOR.invokeAll(crops);
+            }
+            catch (InterruptedException e) {
+                // Crops already running may still read the image, so it is left to the finalizer
+                scope.keep(inputMat);
+                throw e;
+            }
+            // invokeAll returned once every crop was done, so none of them reads the image anymore
+            List<Bitmap> bitmaps = new ArrayList<>(crops.size());
+            for (Future<Bitmap> crop : results) {
+                bitmaps.add(crop.get());
+            }
+            return bitmaps;
+        }
     }
 
     public static void saveToInternalMemory(Context context, Bitmap bitmap, OnSaveListener onSaveListener) {
         new SaveToSdcard(context, onSaveListener).execute(bitmap);
     }
 
+    /**
+     * Saves several images taken from the same photo, see {@link SaveToSdcard}
+     */
+    public static void saveToInternalMemory(Context context, List<Bitmap> bitmaps, OnSaveListener onSaveListener) {
+        new SaveToSdcard(context, onSaveListener).execute(bitmaps.toArray(new Bitmap[bitmaps.size()]));
+    }
+
     public static void saveToInternalMemory(Context context, Uri uri, OnSaveListener onSaveListener) {
         new SavePdfToSdcard(context, onSaveListener).execute(uri);
     }
@@ -479,6 +694,10 @@ public class ScanUtils {
         new Compress(context, onSaveListener).execute(path);
     }
 
+    /**
+     * Saves the bitmaps as JPEG. The result holds the path of the first one, the image type and
+     * then the paths of all of them, in the order of the bitmaps.
+     */
     public static class SaveToSdcard extends AsyncTask<Bitmap, Integer, String[]> {
 
         private final Context context;
@@ -492,14 +711,10 @@ public class ScanUtils {
         @Override
         protected String[] doInBackground(Bitmap... bitmaps) {
 
-            String[] returnParams = new String[3];
-            String fileName = IMAGE_NAME + System.currentTimeMillis() / 1000 + ".jpg";
+            String[] returnParams = new String[2 + bitmaps.length];
+            String baseName = IMAGE_NAME + System.currentTimeMillis() / 1000;
 
             try {
-                ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                bitmaps[0].compress(Bitmap.CompressFormat.JPEG, PHOTO_QUALITY, bos);
-                byte[] bitmapdata = bos.toByteArray();
-                ByteArrayInputStream bis = new ByteArrayInputStream(bitmapdata);
                 File unisaluteFolder = new File(context.getExternalFilesDir(null).getPath());
                 if (!unisaluteFolder.exists()) {
                     unisaluteFolder.mkdirs();
@@ -507,21 +722,31 @@ public class ScanUtils {
                     unisaluteFolder.setWritable(true, false);
                     unisaluteFolder.setExecutable(true, false);
                 }
-                FileOutputStream fos = new FileOutputStream(new File(unisaluteFolder.getPath(), fileName));
-                byte[] b = new byte[100*1024];
-                int j;
+                for (int i = 0; i < bitmaps.length; i++) {
+                    // Documents of the same photo share the timestamp
+                    String fileName = baseName + (i > 0 ? "_" + i : "") + ".jpg";
+                    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                    bitmaps[i].compress(Bitmap.CompressFormat.JPEG, PHOTO_QUALITY, bos);
+                    byte[] bitmapdata = bos.toByteArray();
+                    ByteArrayInputStream bis = new ByteArrayInputStream(bitmapdata);
+                    FileOutputStream fos = new FileOutputStream(new File(unisaluteFolder.getPath(), fileName));
+                    byte[] b = new byte[100*1024];
+                    int j;
+
+                    while ((j = bis.read(b)) != -1) {
+                        fos.write(b, 0, j);
+                    }
 
-                while ((j = bis.read(b)) != -1) {
-                    fos.write(b, 0, j);
-                }
+                    fos.flush();
+                    fos.getFD().sync();
 
-                fos.flush();
-                fos.getFD().sync();
+                    fos.close();
+                    bis.close();
 
-                fos.close();
-                bis.close();
+                    returnParams[2 + i] = context.getExternalFilesDir(null) + "/" + fileName;
+                }
 
-                returnParams[0] = context.getExternalFilesDir(null) + "/" + fileName;
+                returnParams[0] = returnParams[2];
                 returnParams[1] = IMG_TYPE;
             }
             catch (IOException e) {
@@ -832,6 +1057,19 @@ public class ScanUtils {
         return resizedBitmap;
     }
 
+    /**
+     * @param corners ordered top-left, top-right, bottom-right, bottom-left
+     * @return the corners in the order of the polygon view
+     */
+    public static ArrayList<PointF> getPolygonFromCorners(Point[] corners) {
+        ArrayList<PointF> points = new ArrayList<>();
+        points.add(new PointF((float) corners[0].x, (float) corners[0].y));
+        points.add(new PointF((float) corners[1].x, (float) corners[1].y));
+        points.add(new PointF((float) corners[3].x, (float) corners[3].y));
+        points.add(new PointF((float) corners[2].x, (float) corners[2].y));
+        return points;
+    }
+
     public static ArrayList<PointF> getPolygonDefaultPoints(Bitmap bitmap) {
         ArrayList<PointF> points;
         points = new ArrayList<>();
@@ -0,0 +1,23 @@
+package com.mobimentum.liveedgedetection.view;
+
+/**
+ * Brightness statistics of the border of a frame, where the background around the document is
+ */
+public class BackgroundStats {
+    // Mean and standard deviation of the gray level over the four border strips
+    public final double mean;
+    public final double stdDev;
+    // Means of the darkest and of the brightest strip
+    public final double minStripMean;
+    public final double maxStripMean;
+    // True when the background is light, which calls for a stronger dilation of the edges
+    public final boolean isLight;
+
+    public BackgroundStats(double mean, double stdDev, double minStripMean, double maxStripMean, boolean isLight) {
+        this.mean = mean;
+        this.stdDev = stdDev;
+        this.minStripMean = minStripMean;
+        this.maxStripMean = maxStripMean;
+        this.isLight = isLight;
+    }
+}
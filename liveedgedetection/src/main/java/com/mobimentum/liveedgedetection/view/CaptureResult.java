@@ -0,0 +1,27 @@
+package com.mobimentum.liveedgedetection.view;
+
+import android.graphics.Bitmap;
+import android.graphics.PointF;
+
+import org.opencv.core.Point;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Captured picture ready for the crop view
+ */
+public class CaptureResult {
+    // Picture oriented and scaled to the screen
+    public final Bitmap bitmap;
+    // Corners of the polygon view on bitmap, the document found or a default frame
+    public final ArrayList<PointF> points;
+    // Documents found besides the one of points, ordered top-left, top-right, bottom-right, bottom-left
+    public final List<Point[]> otherDocuments;
+
+    public CaptureResult(Bitmap bitmap, ArrayList<PointF> points, List<Point[]> otherDocuments) {
+        this.bitmap = bitmap;
+        this.points = points;
+        this.otherDocuments = otherDocuments;
+    }
+}
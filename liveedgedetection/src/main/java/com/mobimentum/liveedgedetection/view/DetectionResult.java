@@ -0,0 +1,47 @@
+package com.mobimentum.liveedgedetection.view;
+
+import org.opencv.core.Size;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable outcome of the detection run on a single preview frame
+ */
+public class DetectionResult {
+    // Raw detection on the frame
+    public final Quadrilateral quad;
+    // Filtered corner state after the frame, also set when the frame itself had no valid detection
+    public final Quadrilateral smoothedQuad;
+    // True when the frame was rejected as moving or blurry, so that it carries no detection
+    public final boolean skipped;
+    // True when the phone was moving, also on tracked frames, so that the quad must not be captured
+    public final boolean moving;
+    public final Size frameSize;
+    public final long frameSequence;
+    public final long captureTimeNanos;
+    public final long finishTimeNanos;
+    // Every document found on the frame, best scoring first. The first one is quad.
+    public final List<Quadrilateral> documents;
+
+    public DetectionResult(Quadrilateral quad, Quadrilateral smoothedQuad, boolean skipped, boolean moving,
+                           Size frameSize, long frameSequence, long captureTimeNanos, long finishTimeNanos,
+                           List<Quadrilateral> documents) {
+        this.quad = quad;
+        this.smoothedQuad = smoothedQuad;
+        this.skipped = skipped;
+        this.moving = moving;
+        this.frameSize = frameSize;
+        this.frameSequence = frameSequence;
+        this.captureTimeNanos = captureTimeNanos;
+        this.finishTimeNanos = finishTimeNanos;
+        this.documents = Collections.unmodifiableList(documents);
+    }
+
+    /**
+     * @return time elapsed between the arrival of the preview frame and the end of its detection
+     */
+    public long getLatencyNanos() {
+        return finishTimeNanos - captureTimeNanos;
+    }
+}
@@ -1,5 +1,8 @@
 package com.mobimentum.liveedgedetection.view;
 
+import com.mobimentum.liveedgedetection.enums.DetectorType;
+import com.mobimentum.liveedgedetection.enums.DocumentClass;
+
 import org.opencv.core.MatOfPoint2f;
 import org.opencv.core.Point;
 
@@ -9,9 +12,27 @@ import org.opencv.core.Point;
 public class Quadrilateral {
     public final MatOfPoint2f contour;
     public final Point[] points;
+    // How much the quad looks like a document, from 0 to 1
+    public final double confidence;
+    // Document shape the quad matches best, null when it was not scored
+    public final DocumentClass documentClass;
+    // Detector that found the quad
+    public final DetectorType detector;
 
     public Quadrilateral(MatOfPoint2f contour, Point[] points) {
+        this(contour, points, 1, null);
+    }
+
+    public Quadrilateral(MatOfPoint2f contour, Point[] points, double confidence, DocumentClass documentClass) {
+        this(contour, points, confidence, documentClass, DetectorType.CONTOUR);
+    }
+
+    public Quadrilateral(MatOfPoint2f contour, Point[] points, double confidence, DocumentClass documentClass,
+                         DetectorType detector) {
         this.contour = contour;
         this.points = points;
+        this.confidence = confidence;
+        this.documentClass = documentClass;
+        this.detector = detector;
     }
 }
\ No newline at end of file
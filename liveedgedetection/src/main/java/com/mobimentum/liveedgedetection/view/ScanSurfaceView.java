@@ -2,10 +2,8 @@ package com.mobimentum.liveedgedetection.view;
 
 import android.app.Activity;
 import android.content.Context;
-import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.graphics.ImageFormat;
-import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.drawable.shapes.PathShape;
@@ -14,28 +12,45 @@ import android.media.AudioManager;
 import android.os.CountDownTimer;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import android.widget.FrameLayout;
 
-import com.mobimentum.liveedgedetection.constants.ScanConstants;
+import com.mobimentum.liveedgedetection.enums.DetectionStage;
+import com.mobimentum.liveedgedetection.enums.DocumentClass;
+import com.mobimentum.liveedgedetection.enums.PipelinePreset;
 import com.mobimentum.liveedgedetection.enums.ScanHint;
+import com.mobimentum.liveedgedetection.interfaces.IMetricsListener;
 import com.mobimentum.liveedgedetection.interfaces.IScanner;
+import com.mobimentum.liveedgedetection.util.DetectionMetrics;
+import com.mobimentum.liveedgedetection.util.DetectionPipeline;
+import com.mobimentum.liveedgedetection.util.DetectionRateController;
+import com.mobimentum.liveedgedetection.util.DnnQuadDetector;
+import com.mobimentum.liveedgedetection.util.FrameQualityGate;
 import com.mobimentum.liveedgedetection.util.ImageDetectionProperties;
+import com.mobimentum.liveedgedetection.util.LatestFrameScheduler;
+import com.mobimentum.liveedgedetection.util.MatPool;
+import com.mobimentum.liveedgedetection.util.MatScope;
+import com.mobimentum.liveedgedetection.util.QuadDetector;
+import com.mobimentum.liveedgedetection.util.QuadGeometry;
+import com.mobimentum.liveedgedetection.util.QuadKalmanFilter;
+import com.mobimentum.liveedgedetection.util.QuadScorer;
 import com.mobimentum.liveedgedetection.util.ScanUtils;
 
-import org.opencv.core.CvType;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfPoint2f;
 import org.opencv.core.Point;
 import org.opencv.core.Size;
-import org.opencv.imgproc.Imgproc;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
-import static com.mobimentum.liveedgedetection.constants.ScanConstants.INTERVAL_FRAME;
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.MULTI_DOCUMENT_MAX_COUNT;
+import static com.mobimentum.liveedgedetection.constants.ScanConstants.PREVIEW_BUFFER_COUNT;
 import static org.opencv.core.CvType.CV_8UC1;
 
 /**
@@ -51,8 +66,34 @@ public class ScanSurfaceView extends FrameLayout implements SurfaceHolder.Callba
     private CountDownTimer autoCaptureTimer;
     private Camera.Size previewSize;
     private AcquisitionMode acquisitionMode = AcquisitionMode.DETECTION_MODE;
-    private Mat mat;
-    private Quadrilateral largestQuad;
+
+    private final Object cameraLock = new Object();
+    private final PreviewFrame[] previewFrames = new PreviewFrame[PREVIEW_BUFFER_COUNT];
+    private final AtomicReference<DetectionResult> latestResult = new AtomicReference<>();
+    private long frameSequence = 0;
+    private long lastDrawnSequence = 0;
+    // Working buffers of the processing thread, reused across frames
+    // NV21 frame in a direct buffer, filled from Java and read in place by OpenCV
+    private Mat yuvFrame;
+    private ByteBuffer yuvBuffer;
+    private Mat lumaFrame;
+    // Owns the contours of the published result, released when the next one replaces it
+    private MatScope resultScope;
+    private final QuadDetector quadDetector = new QuadDetector();
+    // Replaced with the processing thread, since release() leaves it unusable
+    private volatile QuadKalmanFilter quadFilter;
+    // Overlay redrawn at display rate from the filter predictions
+    private final Path overlayPath = new Path();
+    private final Point[] predictedCorners = { new Point(), new Point(), new Point(), new Point() };
+    private final double[] overlayCorners = new double[QuadGeometry.LENGTH];
+    private PathShape overlayShape;
+    private float overlayWidth;
+    private float overlayHeight;
+    private boolean isOverlayVisible;
+    // Last quad on which the capture hint was shown, handed over with the picture as crop seed
+    private Point[] confirmedCorners;
+    private Size confirmedFrameSize;
+    private boolean isOverlayAnimating;
 
     private int vWidth = 0;
     private int vHeight = 0;
@@ -61,7 +102,10 @@ public class ScanSurfaceView extends FrameLayout implements SurfaceHolder.Callba
     private final IScanner iScanner;
     private final Context context;
     private final ScanCanvasView scanCanvasView;
-    private final Handler processingThread;
+    // Started with the view and again on each new surface, quit when the surface is destroyed
+    private Handler processingThread;
+    private LatestFrameScheduler<PreviewFrame> frameScheduler;
+    private final DetectionRateController rateController;
 
     private boolean isCapturing = false;
     private boolean isAutoCaptureScheduled;
@@ -82,13 +126,16 @@ public class ScanSurfaceView extends FrameLayout implements SurfaceHolder.Callba
         SurfaceHolder surfaceHolder = surfaceView.getHolder();
         surfaceHolder.addCallback(this);
         this.iScanner = iScanner;
-        HandlerThread handlerThread = new HandlerThread("processing");
-        handlerThread.start();
-        this.processingThread = new Handler(handlerThread.getLooper());
+        startProcessingThread();
+        this.rateController = new DetectionRateController(context);
+        setPipelinePreset(DetectionPipeline.getDevicePreset(context));
     }
 
     @Override
     public void surfaceCreated(SurfaceHolder holder) {
+        if (processingThread == null) {
+            startProcessingThread();
+        }
         if (acquisitionMode != AcquisitionMode.FROM_FILESYSTEM ) {
             try {
                 requestLayout();
@@ -105,8 +152,7 @@ public class ScanSurfaceView extends FrameLayout implements SurfaceHolder.Callba
     public void setAcquisitionMode(AcquisitionMode acquisitionMode) {
         this.acquisitionMode = acquisitionMode;
         if (acquisitionMode == AcquisitionMode.MANUAL_MODE) {
-            scanCanvasView.clear();
-            invalidateCanvas();
+            clearAndInvalidateCanvas();
             iScanner.displayHint(ScanHint.NO_MESSAGE);
         }
     }
@@ -116,6 +162,7 @@ public class ScanSurfaceView extends FrameLayout implements SurfaceHolder.Callba
     }
 
     public void clearAndInvalidateCanvas() {
+        isOverlayVisible = false;
         scanCanvasView.clear();
         invalidateCanvas();
     }
@@ -189,82 +236,442 @@ public class ScanSurfaceView extends FrameLayout implements SurfaceHolder.Callba
     @Override
     public void surfaceDestroyed(SurfaceHolder holder) {
         stopPreviewAndFreeCamera();
+        stopProcessingThread();
+        MatPool.SHARED.clear();
+    }
+
+    private void startProcessingThread() {
+        HandlerThread handlerThread = new HandlerThread("processing");
+        handlerThread.start();
+        processingThread = new Handler(handlerThread.getLooper());
+        frameScheduler = new LatestFrameScheduler<>(processingThread, frameHandler);
+        quadFilter = new QuadKalmanFilter();
+    }
+
+    /**
+     * Releases the native buffers of the processing thread on that thread, after the frame it
+     * may still be working on, and then quits it. No frame can be submitted anymore, since the
+     * camera has already been stopped.
+     */
+    private void stopProcessingThread() {
+        if (processingThread == null) {
+            return;
+        }
+        frameScheduler.clear();
+        final Handler handler = processingThread;
+        final QuadKalmanFilter filter = quadFilter;
+        processingThread = null;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                latestResult.set(null);
+                if (resultScope != null) {
+                    resultScope.close();
+                    resultScope = null;
+                }
+                if (lumaFrame != null) {
+                    lumaFrame.release();
+                    lumaFrame = null;
+                }
+                if (yuvFrame != null) {
+                    yuvFrame.release();
+                    yuvFrame = null;
+                    yuvBuffer = null;
+                }
+                quadDetector.release();
+                filter.release();
+                MatPool.PREVIEW.clear();
+                handler.getLooper().quit();
+            }
+        });
     }
 
     private void stopPreviewAndFreeCamera() {
-        if (camera != null) {
-            camera.stopPreview();
-            camera.setPreviewCallback(null);
-            camera.release();
-            camera = null;
+        synchronized (cameraLock) {
+            if (camera != null) {
+                camera.stopPreview();
+                camera.setPreviewCallback(null);
+                camera.release();
+                camera = null;
+            }
         }
     }
 
     public void setPreviewCallback() {
         this.camera.startPreview();
-        this.camera.setPreviewCallback(previewCallback);
+        allocatePreviewBuffers();
+        this.camera.setPreviewCallbackWithBuffer(previewCallback);
+    }
+
+    /**
+     * Hands a fresh ring of callback buffers to the camera. Buffers still owned by the
+     * processing thread belong to the previous ring and are dropped when they come back.
+     */
+    private void allocatePreviewBuffers() {
+        synchronized (cameraLock) {
+            Camera.Size size = camera.getParameters().getPreviewSize();
+            // Uninstalling the callback clears the buffers queued by a previous call
+            camera.setPreviewCallbackWithBuffer(null);
+            for (int i = 0; i < previewFrames.length; i++) {
+                previewFrames[i] = new PreviewFrame(i, size.width, size.height);
+                camera.addCallbackBuffer(previewFrames[i].data);
+            }
+        }
+    }
+
+    private PreviewFrame findPreviewFrame(byte[] data) {
+        for (PreviewFrame frame : previewFrames) {
+            if (frame != null && frame.data == data) {
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    private void recycle(PreviewFrame frame) {
+        synchronized (cameraLock) {
+            if (camera != null && previewFrames[frame.index] == frame) {
+                camera.addCallbackBuffer(frame.data);
+            }
+        }
+    }
+
+    /**
+     * Camera callback buffer with the preview size it was allocated for and the sequence
+     * number and arrival time of the frame it currently holds
+     */
+    private static final class PreviewFrame {
+        final int index;
+        final int width;
+        final int height;
+        final Size size;
+        final byte[] data;
+        long sequence;
+        long captureTimeNanos;
+
+        PreviewFrame(int index, int width, int height) {
+            this.index = index;
+            this.width = width;
+            this.height = height;
+            this.size = new Size(width, height);
+            this.data = new byte[width * height * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8];
+        }
+    }
+
+    private final LatestFrameScheduler.FrameHandler<PreviewFrame> frameHandler = new LatestFrameScheduler.FrameHandler<PreviewFrame>() {
+        @Override
+        public void onProcessFrame(PreviewFrame frame) {
+            DetectionMetrics metrics = quadDetector.getMetrics();
+            long startTime = System.nanoTime();
+            // The camera may refill the frame as soon as it is recycled, so only these copies are read after it
+            int width = frame.width;
+            int height = frame.height;
+            Size frameSize = frame.size;
+            long sequence = frame.sequence;
+            long captureTimeNanos = frame.captureTimeNanos;
+            int yuvRows = height + height / 2;
+            if (yuvFrame == null || yuvFrame.rows() != yuvRows || yuvFrame.cols() != width) {
+                if (yuvFrame != null) {
+                    yuvFrame.release();
+                }
+                yuvFrame = Mat.allocateDirect(yuvRows, width, CV_8UC1);
+                yuvBuffer = yuvFrame.getByteBuffer();
+            }
+            yuvBuffer.clear();
+            yuvBuffer.put(frame.data, 0, yuvBuffer.remaining());
+            recycle(frame);
+            metrics.record(DetectionStage.FRAME_COPY, System.nanoTime() - startTime);
+
+            Quadrilateral quad = quadDetector.detect(getLumaFrame(width, height));
+            boolean skipped = quadDetector.isLastFrameSkipped();
+            boolean moving = quadDetector.isLastFrameMoving();
+            Quadrilateral smoothedQuad = null;
+            // A skipped frame says nothing about the document, so it is not a miss for the filter
+            if (!skipped) {
+                long time = metrics.start();
+                smoothedQuad = quadFilter.update(quad, captureTimeNanos, width, height);
+                metrics.lap(DetectionStage.FILTER, time);
+            }
+            long detectionTime = System.nanoTime() - startTime;
+            boolean fullDetection = !quadDetector.isLastFrameTracked() && !quadDetector.isLastFrameRoi() && !skipped;
+            rateController.onFrameProcessed(detectionTime, fullDetection);
+            metrics.record(DetectionStage.TOTAL, detectionTime);
+            metrics.onFrameFinished();
+
+            List<Quadrilateral> documents = quadDetector.getLastDocuments();
+            MatScope scope = new MatScope();
+            for (Quadrilateral document : documents) {
+                scope.add(document.contour);
+            }
+            if (quad != null && !documents.contains(quad)) {
+                scope.add(quad.contour);
+            }
+            if (smoothedQuad != null) {
+                scope.add(smoothedQuad.contour);
+            }
+            latestResult.set(new DetectionResult(quad, smoothedQuad, skipped, moving, frameSize, sequence,
+                    captureTimeNanos, System.nanoTime(), documents));
+            // The UI thread only reads the corners, so the replaced result can go right away
+            if (resultScope != null) {
+                resultScope.close();
+            }
+            resultScope = scope;
+            post(drawLatestResult);
+        }
+
+        @Override
+        public void onDropFrame(PreviewFrame frame) {
+            recycle(frame);
+        }
+    };
+
+    /**
+     * The first width * height bytes of an NV21 frame are its Y plane: a header over that
+     * region of yuvFrame is already the grayscale image, with no copy and no conversion.
+     */
+    private Mat getLumaFrame(int width, int height) {
+        if (lumaFrame == null || lumaFrame.cols() != width || lumaFrame.rows() != height
+                || lumaFrame.dataAddr() != yuvFrame.dataAddr()) {
+            if (lumaFrame != null) {
+                lumaFrame.release();
+            }
+            lumaFrame = yuvFrame.submat(0, height, 0, width);
+        }
+        return lumaFrame;
+    }
+
+    /**
+     * Searches every document of the frame instead of the largest one only. The first document
+     * drives the hints and the auto capture, the others are only outlined.
+     */
+    public void setMultiDocumentMode(boolean enabled) {
+        quadDetector.setMaxDocuments(enabled ? MULTI_DOCUMENT_MAX_COUNT : 1);
+    }
+
+    public boolean isMultiDocumentMode() {
+        return quadDetector.getMaxDocuments() > 1;
+    }
+
+    /**
+     * @param enabled false to search the whole frame on every detection, instead of the region
+     *                around the document found on the previous frame
+     */
+    public void setRoiDetectionEnabled(boolean enabled) {
+        quadDetector.setRoiEnabled(enabled);
+    }
+
+    /**
+     * @return number of preview frames replaced by a newer one before detection could run
+     */
+    public long getDroppedFrameCount() {
+        return frameScheduler.getDroppedFrames();
+    }
+
+    /**
+     * Switches the preprocessing of the live detection, also while the preview is running
+     */
+    public void setPipelinePreset(PipelinePreset preset) {
+        quadDetector.setPipeline(DetectionPipeline.forPreset(preset));
+    }
+
+    /**
+     * Uses a custom preprocessing for the live detection
+     */
+    public void setPipeline(DetectionPipeline pipeline) {
+        quadDetector.setPipeline(pipeline);
+    }
+
+    /**
+     * Restricts the live detection to the given document shapes
+     *
+     * @param minConfidence score, from 0 to 1, below which a quad is not taken for a document
+     */
+    public void setDocumentClasses(Set<DocumentClass> documentClasses, double minConfidence) {
+        quadDetector.setScorer(new QuadScorer(documentClasses, minConfidence));
+    }
+
+    /**
+     * @param houghBudgetMillis time the line based fallback may take on frames where no contour
+     *                          makes a document, 0 to disable it
+     */
+    public void setHoughFallbackBudget(long houghBudgetMillis) {
+        quadDetector.setHoughBudgetMillis(houghBudgetMillis);
+    }
+
+    /**
+     * Turns on detection by the segmentation network bundled in the assets, with the classic
+     * detection as fallback
+     *
+     * @return false when the app ships no usable model, in which case nothing changes
+     */
+    public boolean enableDnnDetection() {
+        DnnQuadDetector detector = DnnQuadDetector.fromAssets(context);
+        if (detector == null) {
+            return false;
+        }
+        quadDetector.setDnnDetector(detector);
+        return true;
+    }
+
+    public void disableDnnDetection() {
+        quadDetector.setDnnDetector(null);
+    }
+
+    /**
+     * @return per-stage timings of the live detection
+     */
+    public DetectionMetrics getDetectionMetrics() {
+        return quadDetector.getMetrics();
+    }
+
+    /**
+     * @param listener       receives the timings on the processing thread, null to stop
+     * @param reportInterval number of processed frames between two reports
+     */
+    public void setMetricsListener(IMetricsListener listener, int reportInterval) {
+        quadDetector.getMetrics().setListener(listener, reportInterval);
+    }
+
+    /**
+     * @return gate skipping the detection on moving or blurry frames, to read its scores or
+     * change its thresholds
+     */
+    public FrameQualityGate getFrameQualityGate() {
+        return quadDetector.getQualityGate();
+    }
+
+    /**
+     * @return controller deciding how often preview frames are processed, to read the current
+     * rate and budget or to change the budget
+     */
+    public DetectionRateController getDetectionRateController() {
+        return rateController;
     }
 
-    long lastCall = 0;
     private final Camera.PreviewCallback previewCallback = new Camera.PreviewCallback() {
         @Override
         public void onPreviewFrame(final byte[] data, final Camera camera) {
+            PreviewFrame frame = findPreviewFrame(data);
+            if (frame == null) {
+                return;
+            }
+            // Tracked frames are cheap, so the measured rate rises by itself while a quad is tracked
             if ((null != camera) && (getAcquisitionMode() != AcquisitionMode.MANUAL_MODE) &&
-                    (getAcquisitionMode() != AcquisitionMode.FROM_FILESYSTEM) && (System.currentTimeMillis() - lastCall) > INTERVAL_FRAME) {
-                try {
-                    final Camera.Size pictureSize = camera.getParameters().getPreviewSize();
-                    processingThread.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            Mat yuv = new Mat(new Size(pictureSize.width, pictureSize.height * 1.5), CV_8UC1);
-                            yuv.put(0, 0, data);
-
-                            mat = new Mat(new Size(pictureSize.width, pictureSize.height), CvType.CV_8UC4);
-                            if (!mat.empty()) {
-                                Imgproc.cvtColor(yuv, mat, Imgproc.COLOR_YUV2BGR_NV21, 4);
-                                yuv.release();
-
-                                largestQuad = ScanUtils.detectLargestQuadrilateral(mat);
-                            }
-                        }
-                    });
-                    clearAndInvalidateCanvas();
-
-                    Size originalPreviewSize = mat.size();
-                    int originalPreviewArea = mat.rows() * mat.cols();
-                    mat.release();
-
-                    if (largestQuad != null) {
-                        drawLargestRect(largestQuad.contour, largestQuad.points, originalPreviewSize, originalPreviewArea);
-                    }
-                    else {
-                        showFindingReceiptHint();
-                    }
+                    (getAcquisitionMode() != AcquisitionMode.FROM_FILESYSTEM) &&
+                    rateController.shouldProcess(SystemClock.uptimeMillis())) {
+                frame.sequence = ++frameSequence;
+                frame.captureTimeNanos = System.nanoTime();
+                rateController.onFrameSubmitted(frameScheduler.submit(frame));
+            }
+            else {
+                recycle(frame);
+            }
+        }
+    };
+
+    /**
+     * Renders the most recent detection result on the UI thread, skipping results that are
+     * not newer than the last one drawn
+     */
+    private final Runnable drawLatestResult = new Runnable() {
+        @Override
+        public void run() {
+            DetectionResult result = latestResult.get();
+            if (result == null || result.frameSequence <= lastDrawnSequence || isCapturing
+                    || getAcquisitionMode() == AcquisitionMode.MANUAL_MODE
+                    || getAcquisitionMode() == AcquisitionMode.FROM_FILESYSTEM) {
+                return;
+            }
+            lastDrawnSequence = result.frameSequence;
+            if (result.skipped) {
+                // Keep the overlay and hint as they are, but never capture while moving or blurry
+                cancelAutoCapture();
+                return;
+            }
+            try {
+                clearAndInvalidateCanvas();
+                // Hints follow the filtered corners, so a single outlier or missed frame is ignored
+                if (result.smoothedQuad != null) {
+                    drawLargestRect(result.smoothedQuad.points, result.frameSize,
+                            (int) result.frameSize.area(), result.documents, result.moving);
+                    startOverlayAnimation();
                 }
-                catch (Exception e) {
+                else {
                     showFindingReceiptHint();
                 }
-                lastCall = System.currentTimeMillis();
+            }
+            catch (Exception e) {
+                showFindingReceiptHint();
             }
         }
     };
 
-    private void drawLargestRect(MatOfPoint2f approx, Point[] points, Size stdSize, int previewArea) {
-        Path path = new Path();
+    /**
+     * Moves the overlay on every display frame to the corners predicted by the filter, until the
+     * overlay is cleared or the filter loses its lock
+     */
+    private final Runnable animateOverlay = new Runnable() {
+        @Override
+        public void run() {
+            if (!isOverlayVisible || isCapturing || !quadFilter.predict(System.nanoTime(), predictedCorners)) {
+                isOverlayAnimating = false;
+                return;
+            }
+            setPath(overlayPath, predictedCorners);
+            invalidateCanvas();
+            postOnAnimation(this);
+        }
+    };
+
+    private void startOverlayAnimation() {
+        if (!isOverlayAnimating) {
+            isOverlayAnimating = true;
+            postOnAnimation(animateOverlay);
+        }
+    }
+
+    private void setPath(Path path, Point[] points) {
+        // ATTENTION: axis are swapped
+        path.reset();
+        //Points are drawn in anticlockwise direction
+        path.moveTo(overlayWidth - (float) points[0].y, (float) points[0].x);
+        path.lineTo(overlayWidth - (float) points[1].y, (float) points[1].x);
+        path.lineTo(overlayWidth - (float) points[2].y, (float) points[2].x);
+        path.lineTo(overlayWidth - (float) points[3].y, (float) points[3].x);
+        path.close();
+    }
+
+    /**
+     * @return last detection result published by the processing thread, or null. The contours
+     * of a result are released once a newer one replaces it, its points stay valid.
+     */
+    public DetectionResult getLatestDetectionResult() {
+        return latestResult.get();
+    }
+
+    /**
+     * @param documents all the documents of the frame, the first one being the quad of points.
+     *                  The others are outlined with the same paint.
+     * @param moving    true when the phone is moving, so that no capture is scheduled
+     */
+    private void drawLargestRect(Point[] points, Size stdSize, int previewArea, List<Quadrilateral> documents,
+                                 boolean moving) {
+        confirmedCorners = null;
         // ATTENTION: axis are swapped
         float previewWidth = (float) stdSize.height;
         float previewHeight = (float) stdSize.width;
 
-        //Points are drawn in anticlockwise direction
-        path.moveTo(previewWidth - (float) points[0].y, (float) points[0].x);
-        path.lineTo(previewWidth - (float) points[1].y, (float) points[1].x);
-        path.lineTo(previewWidth - (float) points[2].y, (float) points[2].x);
-        path.lineTo(previewWidth - (float) points[3].y, (float) points[3].x);
-        path.close();
+        // The shape keeps a reference to the path, which the overlay animation keeps updating
+        if (overlayShape == null || overlayWidth != previewWidth || overlayHeight != previewHeight) {
+            overlayWidth = previewWidth;
+            overlayHeight = previewHeight;
+            overlayShape = new PathShape(overlayPath, previewWidth, previewHeight);
+        }
+        setPath(overlayPath, points);
 
-        double area = Math.abs(Imgproc.contourArea(approx));
+        QuadGeometry.set(overlayCorners, points);
+        double area = QuadGeometry.area(overlayCorners);
 
-        PathShape newBox = new PathShape(path, previewWidth, previewHeight);
         Paint paint = new Paint();
         Paint border = new Paint();
 
@@ -325,7 +732,7 @@ public class ScanSurfaceView extends FrameLayout implements SurfaceHolder.Callba
                 cancelAutoCapture();
                 scanHint = ScanHint.MOVE_AWAY;
             }
-            else if (imgDetectionPropsObj.isAngleNotCorrect(approx)) {
+            else if (imgDetectionPropsObj.isAngleNotCorrect(points)) {
                 cancelAutoCapture();
                 scanHint = ScanHint.ADJUST_ANGLE;
             }
@@ -340,8 +747,17 @@ public class ScanSurfaceView extends FrameLayout implements SurfaceHolder.Callba
                         "previewHeight: " + previewHeight);
                 scanHint = ScanHint.CAPTURING_IMAGE;
                 clearAndInvalidateCanvas();
+                confirmedCorners = new Point[points.length];
+                for (int i = 0; i < points.length; i++) {
+                    confirmedCorners[i] = points[i].clone();
+                }
+                confirmedFrameSize = stdSize;
 
-                if (!isAutoCaptureScheduled) {
+                // A tracked quad follows the document while the phone moves, but is not captured then
+                if (moving) {
+                    cancelAutoCapture();
+                }
+                else if (!isAutoCaptureScheduled) {
                     scheduleAutoCapture(scanHint);
                 }
             }
@@ -355,8 +771,14 @@ public class ScanSurfaceView extends FrameLayout implements SurfaceHolder.Callba
         iScanner.displayHint(scanHint);
         setPaintAndBorder(scanHint, paint, border);
         scanCanvasView.clear();
-        scanCanvasView.addShape(newBox, paint, border);
+        scanCanvasView.addShape(overlayShape, paint, border);
+        for (int i = 1; i < documents.size(); i++) {
+            Path path = new Path();
+            setPath(path, documents.get(i).points);
+            scanCanvasView.addShape(new PathShape(path, previewWidth, previewHeight), paint, border);
+        }
         invalidateCanvas();
+        isOverlayVisible = true;
     }
 
     private void scheduleAutoCapture(final ScanHint scanHint) {
@@ -407,6 +829,7 @@ public class ScanSurfaceView extends FrameLayout implements SurfaceHolder.Callba
     }
 
     private void showFindingReceiptHint() {
+        confirmedCorners = null;
         iScanner.displayHint(ScanHint.FIND_RECT);
         clearAndInvalidateCanvas();
     }
@@ -440,20 +863,16 @@ public class ScanSurfaceView extends FrameLayout implements SurfaceHolder.Callba
     private final Camera.PictureCallback pictureCallback = new Camera.PictureCallback() {
         @Override
         public void onPictureTaken(byte[] data, Camera camera) {
-            processingThread.removeCallbacksAndMessages(null);
-            largestQuad = null;
+            frameScheduler.clear();
+            latestResult.set(null);
+            quadFilter.reset();
             camera.stopPreview();
             iScanner.displayHint(ScanHint.NO_MESSAGE);
             clearAndInvalidateCanvas();
 
-            Bitmap bitmap = ScanUtils.decodeBitmapFromByteArray(data,
-                    ScanConstants.HIGHER_SAMPLING_THRESHOLD, ScanConstants.HIGHER_SAMPLING_THRESHOLD);
-
-            Matrix matrix = new Matrix();
-            matrix.postRotate(90);
-            bitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
-
-            iScanner.onPictureClicked(bitmap);
+            // Decoding and cropping run in background, the preview corners go along as crop seed
+            iScanner.onPictureTaken(data, confirmedCorners, confirmedFrameSize);
+            confirmedCorners = null;
             postDelayed(new Runnable() {
                 @Override
                 public void run() {
@@ -0,0 +1,96 @@
+package com.mobimentum.liveedgedetection.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Plain JVM tests of the quad geometry kernel
+ */
+public class QuadGeometryTest {
+
+    private static final double DELTA = 1e-9;
+
+    // 40 x 20 rectangle, clockwise on screen from top-left
+    private static final double[] RECTANGLE = { 10, 10, 50, 10, 50, 30, 10, 30 };
+
+    @Test
+    public void sort_ordersShuffledCorners() {
+        double[] shuffled = { 50, 30, 10, 30, 50, 10, 10, 10 };
+        double[] sorted = new double[QuadGeometry.LENGTH];
+        QuadGeometry.sort(shuffled, sorted);
+        assertArrayEquals(RECTANGLE, sorted, DELTA);
+    }
+
+    @Test
+    public void sort_handlesRotatedQuad() {
+        double[] rotated = { 60, 40, 20, 35, 25, 5, 65, 10 };
+        double[] sorted = new double[QuadGeometry.LENGTH];
+        QuadGeometry.sort(rotated, sorted);
+        assertArrayEquals(new double[] { 25, 5, 65, 10, 60, 40, 20, 35 }, sorted, DELTA);
+    }
+
+    @Test
+    public void area_isIndependentOfOrientation() {
+        double[] counterClockwise = { 10, 10, 10, 30, 50, 30, 50, 10 };
+        assertEquals(800, QuadGeometry.area(RECTANGLE), DELTA);
+        assertEquals(800, QuadGeometry.area(counterClockwise), DELTA);
+    }
+
+    @Test
+    public void edgeLengthAndPerimeter() {
+        assertEquals(40, QuadGeometry.edgeLength(RECTANGLE, 0), DELTA);
+        assertEquals(20, QuadGeometry.edgeLength(RECTANGLE, 1), DELTA);
+        assertEquals(20, QuadGeometry.edgeLength(RECTANGLE, 3), DELTA);
+        assertEquals(120, QuadGeometry.perimeter(RECTANGLE), DELTA);
+    }
+
+    @Test
+    public void cosine_isZeroOnRightAngles() {
+        for (int i = 0; i < 4; i++) {
+            assertEquals(0, QuadGeometry.cosine(RECTANGLE, i), 1e-6);
+        }
+        assertEquals(0, QuadGeometry.maxCosine(RECTANGLE), 1e-6);
+    }
+
+    @Test
+    public void maxCosine_detectsSkewedCorners() {
+        // Parallelogram with 45 degree angles
+        double[] skewed = { 0, 0, 20, 0, 30, 10, 10, 10 };
+        assertEquals(Math.sqrt(0.5), QuadGeometry.maxCosine(skewed), 1e-6);
+    }
+
+    @Test
+    public void isConvex() {
+        assertTrue(QuadGeometry.isConvex(RECTANGLE));
+        double[] arrowhead = { 0, 0, 20, 10, 0, 20, 5, 10 };
+        assertFalse(QuadGeometry.isConvex(arrowhead));
+        double[] degenerate = { 0, 0, 10, 0, 20, 0, 10, 10 };
+        assertFalse(QuadGeometry.isConvex(degenerate));
+    }
+
+    @Test
+    public void contains() {
+        assertTrue(QuadGeometry.contains(RECTANGLE, 30, 20));
+        assertFalse(QuadGeometry.contains(RECTANGLE, 5, 20));
+        assertFalse(QuadGeometry.contains(RECTANGLE, 30, 40));
+        double[] arrowhead = { 0, 0, 20, 10, 0, 20, 5, 10 };
+        assertTrue(QuadGeometry.contains(arrowhead, 10, 10));
+        assertFalse(QuadGeometry.contains(arrowhead, 2, 10));
+    }
+
+    @Test
+    public void overlaps() {
+        double[] inside = { 20, 15, 30, 15, 30, 25, 20, 25 };
+        double[] apart = { 60, 10, 80, 10, 80, 30, 60, 30 };
+        // Crosses the rectangle with no corner inside it
+        double[] cross = { 20, 0, 30, 0, 30, 40, 20, 40 };
+        assertTrue(QuadGeometry.overlaps(RECTANGLE, inside));
+        assertTrue(QuadGeometry.overlaps(inside, RECTANGLE));
+        assertTrue(QuadGeometry.overlaps(RECTANGLE, cross));
+        assertFalse(QuadGeometry.overlaps(RECTANGLE, apart));
+    }
+}
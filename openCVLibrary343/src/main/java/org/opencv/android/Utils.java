@@ -103,6 +103,25 @@ public class Utils {
     }
 
 
+    /**
+     * Copies an 'ARGB_8888' Bitmap into a new Mat allocated over a direct ByteBuffer, without
+     * going through native code.
+     * <p>
+     * The Mat is of the 'CV_8UC4' type and keeps the image in alpha premultiplied RGBA format,
+     * like bitmapToMat(bmp, mat, false). Its pixels can be read in place with Mat.getByteBuffer().
+     * @param bmp is a valid input Bitmap object of the type 'ARGB_8888'.
+     * @return the Mat, to be released by the caller.
+     */
+    public static Mat bitmapToDirectMat(Bitmap bmp) {
+        if (bmp == null)
+            throw new java.lang.IllegalArgumentException("bmp == null");
+        if (bmp.getConfig() != Bitmap.Config.ARGB_8888)
+            throw new java.lang.IllegalArgumentException("bmp should be of the ARGB_8888 type");
+        Mat mat = Mat.allocateDirect(bmp.getHeight(), bmp.getWidth(), CvType.CV_8UC4);
+        bmp.copyPixelsToBuffer(mat.getByteBuffer());
+        return mat;
+    }
+
     /**
      * Converts OpenCV Mat to Android Bitmap.
      * <p>
@@ -1,6 +1,7 @@
 package org.opencv.core;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 // C++: class Mat
 //javadoc: Mat
@@ -8,6 +9,11 @@ public class Mat {
 
     public final long nativeObj;
 
+    // Direct buffer holding the data of a Mat created over one. The reference keeps the memory
+    // alive for as long as the Mat may point into it.
+    private ByteBuffer dataBuffer;
+    private long dataBufferAddr;
+
     public Mat(long addr)
     {
         if (addr == 0)
@@ -48,12 +54,60 @@ public class Mat {
     // javadoc: Mat::Mat(rows, cols, type, data)
     public Mat(int rows, int cols, int type, ByteBuffer data)
     {
+        if (data == null || !data.isDirect())
+            throw new java.lang.IllegalArgumentException("data should be a direct ByteBuffer");
+        if (data.capacity() < (long) rows * cols * CvType.ELEM_SIZE(type))
+            throw new java.lang.IllegalArgumentException("data is too small for a " + rows + "x" + cols + " "
+                    + CvType.typeToString(type) + " Mat");
 
         nativeObj = n_Mat(rows, cols, type, data);
+        dataBuffer = data;
+        dataBufferAddr = n_dataAddr(nativeObj);
 
         return;
     }
 
+    /**
+     * Allocates a continuous Mat whose data lives in a new direct ByteBuffer, so that it can be
+     * read and written in place through {@link #getByteBuffer()}.
+     */
+    public static Mat allocateDirect(int rows, int cols, int type)
+    {
+        ByteBuffer data = ByteBuffer.allocateDirect(rows * cols * CvType.ELEM_SIZE(type));
+        data.order(ByteOrder.nativeOrder());
+        return new Mat(rows, cols, type, data);
+    }
+
+    /**
+     * @return true when the data of the Mat is still the direct ByteBuffer it was created over
+     */
+    public boolean hasByteBuffer()
+    {
+        return dataBuffer != null && dataBufferAddr != 0 && n_dataAddr(nativeObj) == dataBufferAddr;
+    }
+
+    /**
+     * Returns a view over the data of a Mat created over a direct ByteBuffer, with no copy.
+     * Position is 0, limit the data size, byte order the native one.
+     * <p>
+     * The view fails once the Mat is released, or reallocated by an operation writing a
+     * different size or type into it: from then on the Mat no longer reads the buffer. Views
+     * taken before stay memory safe, since the buffer is owned by Java, but no longer show the
+     * content of the Mat.
+     */
+    public ByteBuffer getByteBuffer()
+    {
+        if (dataBuffer == null)
+            throw new java.lang.UnsupportedOperationException("Mat was not created over a direct ByteBuffer");
+        if (!hasByteBuffer())
+            throw new java.lang.IllegalStateException("Mat was released or reallocated, its data is no longer in the ByteBuffer");
+        ByteBuffer view = dataBuffer.duplicate();
+        view.order(ByteOrder.nativeOrder());
+        view.clear();
+        view.limit((int) (total() * elemSize()));
+        return view;
+    }
+
     //
     // C++: Mat::Mat(Size size, int type)
     //
@@ -655,6 +709,7 @@ public class Mat {
     {
 
         n_release(nativeObj);
+        dataBuffer = null;
 
         return;
     }
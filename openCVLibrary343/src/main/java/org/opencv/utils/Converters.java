@@ -33,55 +33,129 @@ public class Converters {
     }
 
     public static Mat vector_Point_to_Mat(List<Point> pts, int typeDepth) {
-        Mat res;
         int count = (pts != null) ? pts.size() : 0;
-        if (count > 0) {
-            switch (typeDepth) {
-            case CvType.CV_32S: {
-                res = new Mat(count, 1, CvType.CV_32SC2);
-                int[] buff = new int[count * 2];
-                for (int i = 0; i < count; i++) {
-                    Point p = pts.get(i);
-                    buff[i * 2] = (int) p.x;
-                    buff[i * 2 + 1] = (int) p.y;
-                }
-                res.put(0, 0, buff);
+        switch (typeDepth) {
+        case CvType.CV_32S: {
+            int[] buff = new int[count * 2];
+            for (int i = 0; i < count; i++) {
+                Point p = pts.get(i);
+                buff[i * 2] = (int) p.x;
+                buff[i * 2 + 1] = (int) p.y;
             }
-                break;
+            return vector_Point_to_Mat(buff);
+        }
 
-            case CvType.CV_32F: {
-                res = new Mat(count, 1, CvType.CV_32FC2);
-                float[] buff = new float[count * 2];
-                for (int i = 0; i < count; i++) {
-                    Point p = pts.get(i);
-                    buff[i * 2] = (float) p.x;
-                    buff[i * 2 + 1] = (float) p.y;
-                }
-                res.put(0, 0, buff);
+        case CvType.CV_32F: {
+            float[] buff = new float[count * 2];
+            for (int i = 0; i < count; i++) {
+                Point p = pts.get(i);
+                buff[i * 2] = (float) p.x;
+                buff[i * 2 + 1] = (float) p.y;
             }
-                break;
+            return vector_Point2f_to_Mat(buff);
+        }
 
-            case CvType.CV_64F: {
-                res = new Mat(count, 1, CvType.CV_64FC2);
-                double[] buff = new double[count * 2];
-                for (int i = 0; i < count; i++) {
-                    Point p = pts.get(i);
-                    buff[i * 2] = p.x;
-                    buff[i * 2 + 1] = p.y;
-                }
-                res.put(0, 0, buff);
+        case CvType.CV_64F: {
+            double[] buff = new double[count * 2];
+            for (int i = 0; i < count; i++) {
+                Point p = pts.get(i);
+                buff[i * 2] = p.x;
+                buff[i * 2 + 1] = p.y;
             }
-                break;
+            return vector_Point2d_to_Mat(buff);
+        }
 
-            default:
-                throw new IllegalArgumentException("'typeDepth' can be CV_32S, CV_32F or CV_64F");
-            }
+        default:
+            throw new IllegalArgumentException("'typeDepth' can be CV_32S, CV_32F or CV_64F");
+        }
+    }
+
+    /**
+     * Bulk conversions: the values are written to the Mat and read back with a single put or
+     * get, without boxing. Point arrays hold x and y interleaved.
+     */
+    public static Mat vector_Point_to_Mat(int[] xy) {
+        return array_to_Mat(xy, xy != null ? xy.length : 0, 2, CvType.CV_32SC2);
+    }
+
+    public static Mat vector_Point2f_to_Mat(float[] xy) {
+        return array_to_Mat(xy, xy != null ? xy.length : 0, 2, CvType.CV_32FC2);
+    }
+
+    public static Mat vector_Point2d_to_Mat(double[] xy) {
+        return array_to_Mat(xy, xy != null ? xy.length : 0, 2, CvType.CV_64FC2);
+    }
+
+    public static Mat vector_int_to_Mat(int[] is) {
+        return array_to_Mat(is, is != null ? is.length : 0, 1, CvType.CV_32SC1);
+    }
+
+    public static Mat vector_float_to_Mat(float[] fs) {
+        return array_to_Mat(fs, fs != null ? fs.length : 0, 1, CvType.CV_32FC1);
+    }
+
+    public static Mat vector_double_to_Mat(double[] ds) {
+        return array_to_Mat(ds, ds != null ? ds.length : 0, 1, CvType.CV_64FC1);
+    }
+
+    private static Mat array_to_Mat(Object buff, int length, int channels, int type) {
+        if (length % channels != 0)
+            throw new IllegalArgumentException("Array length should be a multiple of " + channels);
+        int count = length / channels;
+        if (count == 0)
+            return new Mat();
+        Mat res = new Mat(count, 1, type);
+        if (buff instanceof int[]) {
+            res.put(0, 0, (int[]) buff);
+        } else if (buff instanceof float[]) {
+            res.put(0, 0, (float[]) buff);
         } else {
-            res = new Mat();
+            res.put(0, 0, (double[]) buff);
         }
         return res;
     }
 
+    /**
+     * @return all the values of a CV_32S Mat, channels interleaved, read with a single get
+     */
+    public static int[] Mat_to_array_int(Mat m) {
+        checkArrayMat(m, CvType.CV_32S);
+        int[] buff = new int[(int) m.total() * m.channels()];
+        if (buff.length > 0)
+            m.get(0, 0, buff);
+        return buff;
+    }
+
+    /**
+     * @return all the values of a CV_32F Mat, channels interleaved, read with a single get
+     */
+    public static float[] Mat_to_array_float(Mat m) {
+        checkArrayMat(m, CvType.CV_32F);
+        float[] buff = new float[(int) m.total() * m.channels()];
+        if (buff.length > 0)
+            m.get(0, 0, buff);
+        return buff;
+    }
+
+    /**
+     * @return all the values of a CV_64F Mat, channels interleaved, read with a single get
+     */
+    public static double[] Mat_to_array_double(Mat m) {
+        checkArrayMat(m, CvType.CV_64F);
+        double[] buff = new double[(int) m.total() * m.channels()];
+        if (buff.length > 0)
+            m.get(0, 0, buff);
+        return buff;
+    }
+
+    private static void checkArrayMat(Mat m, int depth) {
+        if (m == null)
+            throw new java.lang.IllegalArgumentException("Input Mat can't be null");
+        if (m.depth() != depth)
+            throw new java.lang.IllegalArgumentException(
+                    "Input Mat should be of " + CvType.typeToString(depth) + " depth\n" + m);
+    }
+
     public static Mat vector_Point3i_to_Mat(List<Point3> pts) {
         return vector_Point3_to_Mat(pts, CvType.CV_32S);
     }
@@ -165,20 +239,17 @@ public class Converters {
 
         pts.clear();
         if (type == CvType.CV_32SC2) {
-            int[] buff = new int[2 * count];
-            m.get(0, 0, buff);
+            int[] buff = Mat_to_array_int(m);
             for (int i = 0; i < count; i++) {
                 pts.add(new Point(buff[i * 2], buff[i * 2 + 1]));
             }
         } else if (type == CvType.CV_32FC2) {
-            float[] buff = new float[2 * count];
-            m.get(0, 0, buff);
+            float[] buff = Mat_to_array_float(m);
             for (int i = 0; i < count; i++) {
                 pts.add(new Point(buff[i * 2], buff[i * 2 + 1]));
             }
         } else if (type == CvType.CV_64FC2) {
-            double[] buff = new double[2 * count];
-            m.get(0, 0, buff);
+            double[] buff = Mat_to_array_double(m);
             for (int i = 0; i < count; i++) {
                 pts.add(new Point(buff[i * 2], buff[i * 2 + 1]));
             }
@@ -269,20 +340,12 @@ public class Converters {
     }
 
     public static Mat vector_float_to_Mat(List<Float> fs) {
-        Mat res;
         int count = (fs != null) ? fs.size() : 0;
-        if (count > 0) {
-            res = new Mat(count, 1, CvType.CV_32FC1);
-            float[] buff = new float[count];
-            for (int i = 0; i < count; i++) {
-                float f = fs.get(i);
-                buff[i] = f;
-            }
-            res.put(0, 0, buff);
-        } else {
-            res = new Mat();
+        float[] buff = new float[count];
+        for (int i = 0; i < count; i++) {
+            buff[i] = fs.get(i);
         }
-        return res;
+        return vector_float_to_Mat(buff);
     }
 
     public static void Mat_to_vector_float(Mat m, List<Float> fs) {
@@ -294,8 +357,7 @@ public class Converters {
                     "CvType.CV_32FC1 != m.type() ||  m.cols()!=1\n" + m);
 
         fs.clear();
-        float[] buff = new float[count];
-        m.get(0, 0, buff);
+        float[] buff = Mat_to_array_float(m);
         for (int i = 0; i < count; i++) {
             fs.add(buff[i]);
         }
@@ -352,20 +414,12 @@ public class Converters {
     }
 
     public static Mat vector_int_to_Mat(List<Integer> is) {
-        Mat res;
         int count = (is != null) ? is.size() : 0;
-        if (count > 0) {
-            res = new Mat(count, 1, CvType.CV_32SC1);
-            int[] buff = new int[count];
-            for (int i = 0; i < count; i++) {
-                int v = is.get(i);
-                buff[i] = v;
-            }
-            res.put(0, 0, buff);
-        } else {
-            res = new Mat();
+        int[] buff = new int[count];
+        for (int i = 0; i < count; i++) {
+            buff[i] = is.get(i);
         }
-        return res;
+        return vector_int_to_Mat(buff);
     }
 
     public static void Mat_to_vector_int(Mat m, List<Integer> is) {
@@ -377,8 +431,7 @@ public class Converters {
                     "CvType.CV_32SC1 != m.type() ||  m.cols()!=1\n" + m);
 
         is.clear();
-        int[] buff = new int[count];
-        m.get(0, 0, buff);
+        int[] buff = Mat_to_array_int(m);
         for (int i = 0; i < count; i++) {
             is.add(buff[i]);
         }
@@ -639,20 +692,12 @@ public class Converters {
     }
 
     public static Mat vector_double_to_Mat(List<Double> ds) {
-        Mat res;
         int count = (ds != null) ? ds.size() : 0;
-        if (count > 0) {
-            res = new Mat(count, 1, CvType.CV_64FC1);
-            double[] buff = new double[count];
-            for (int i = 0; i < count; i++) {
-                double v = ds.get(i);
-                buff[i] = v;
-            }
-            res.put(0, 0, buff);
-        } else {
-            res = new Mat();
+        double[] buff = new double[count];
+        for (int i = 0; i < count; i++) {
+            buff[i] = ds.get(i);
         }
-        return res;
+        return vector_double_to_Mat(buff);
     }
 
     public static void Mat_to_vector_double(Mat m, List<Double> ds) {
@@ -664,8 +709,7 @@ public class Converters {
                     "CvType.CV_64FC1 != m.type() ||  m.cols()!=1\n" + m);
 
         ds.clear();
-        double[] buff = new double[count];
-        m.get(0, 0, buff);
+        double[] buff = Mat_to_array_double(m);
         for (int i = 0; i < count; i++) {
             ds.add(buff[i]);
         }